@@ -0,0 +1,93 @@
+package com.sshtools.pushsftp.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+
+/**
+ * Starts a {@link BenchServer} for each trial, connects to it and creates a
+ * local file of random (so incompressible) data to transfer. Remote paths
+ * are relative to the server's root.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractTransferBenchmark {
+
+	@Param({ "67108864" })
+	public long size;
+
+	@Param({ "32768" })
+	public int blocksize;
+
+	@Param({ "0", "64" })
+	public int asyncRequests;
+
+	protected Path local;
+	protected Path remote;
+	protected Path source;
+	protected BenchServer server;
+	protected SshClient ssh;
+	protected SftpClient sftp;
+
+	@Setup(Level.Trial)
+	public void setupServer() throws Exception {
+		local = Files.createTempDirectory("push-sftp-bench-local");
+		remote = Files.createTempDirectory("push-sftp-bench-remote");
+		source = createFile(local.resolve("source.bin"), size);
+
+		server = new BenchServer(remote);
+		ssh = server.connect();
+		sftp = SftpClientBuilder.create().withClient(ssh).build();
+		if(blocksize > 0)
+			sftp.setBlockSize(blocksize);
+		if(asyncRequests > 0)
+			sftp.setMaxAsyncRequests(asyncRequests);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownServer() throws Exception {
+		try {
+			sftp.close();
+			ssh.disconnect();
+			server.close();
+		}
+		finally {
+			delete(local);
+			delete(remote);
+		}
+	}
+
+	protected static Path createFile(Path file, long size) throws IOException {
+		var random = new SplittableRandom(size);
+		var buf = new byte[65536];
+		try(var out = Files.newOutputStream(file)) {
+			for(long written = 0 ; written < size; written += buf.length) {
+				random.nextBytes(buf);
+				out.write(buf, 0, (int)Math.min(buf.length, size - written));
+			}
+		}
+		return file;
+	}
+
+	protected static void delete(Path dir) throws IOException {
+		if(dir != null && Files.exists(dir)) {
+			try(var walk = Files.walk(dir)) {
+				for(var path : walk.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+}
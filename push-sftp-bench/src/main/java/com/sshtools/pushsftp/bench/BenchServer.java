@@ -0,0 +1,82 @@
+package com.sshtools.pushsftp.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.files.nio.NioFileFactory.NioFileFactoryBuilder;
+import com.sshtools.common.ssh.components.SshKeyPairGenerator;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+
+/**
+ * An SSH server with SFTP, listening on the loopback interface and serving a
+ * local directory, so transfers can be measured without a network or a
+ * server installation.
+ */
+public final class BenchServer implements Closeable {
+
+	public final static String USERNAME = "bench";
+	public final static String PASSWORD = "bench";
+
+	private final SshServer server;
+	private final int port;
+	private final Path root;
+
+	public BenchServer(Path root) throws IOException {
+		this.root = root;
+		try(var socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+
+		server = new SshServer(InetAddress.getLoopbackAddress(), port);
+		try {
+			server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519));
+		} catch (Exception e) {
+			throw new IOException("Failed to generate host key.", e);
+		}
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser(USERNAME, PASSWORD.toCharArray()));
+		server.setFileFactory(con -> NioFileFactoryBuilder.create().withHome(root).build());
+		server.start();
+	}
+
+	public int port() {
+		return port;
+	}
+
+	public Path root() {
+		return root;
+	}
+
+	/**
+	 * Connect and authenticate a new client.
+	 *
+	 * @return client
+	 * @throws IOException on error
+	 */
+	public SshClient connect() throws IOException {
+		try {
+			return SshClientBuilder.create().
+					withHostname(InetAddress.getLoopbackAddress().getHostAddress()).
+					withPort(port).
+					withUsername(USERNAME).
+					withPassword(PASSWORD).
+					build();
+		}
+		catch(IOException ioe) {
+			throw ioe;
+		}
+		catch(Exception e) {
+			throw new IOException("Failed to connect to benchmark server.", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+}
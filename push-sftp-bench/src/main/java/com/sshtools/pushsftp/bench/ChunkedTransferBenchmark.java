@@ -0,0 +1,54 @@
+package com.sshtools.pushsftp.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.RemoteHash;
+
+/**
+ * Adds the parameters of chunked transfers. The additional connections are
+ * made once per trial, in the same way the interactive shell re-uses pooled
+ * connections, so only the transfer itself is measured.
+ */
+public abstract class ChunkedTransferBenchmark extends AbstractTransferBenchmark {
+
+	@Param({ "1", "3", "8" })
+	public int chunks;
+
+	@Param({ "false", "true" })
+	public boolean multiplex;
+
+	@Param({ "false" })
+	public boolean verify;
+
+	@Param({ "md5" })
+	public RemoteHash digest;
+
+	protected SshClient[] clients;
+
+	@Setup(Level.Trial)
+	public void setupClients() throws Exception {
+		clients = new SshClient[chunks];
+		clients[0] = ssh;
+		if(!multiplex) {
+			for(int i = 1 ; i < chunks; i++) {
+				clients[i] = server.connect();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownClients() {
+		for(int i = 1 ; i < clients.length; i++) {
+			if(clients[i] != null)
+				clients[i].disconnect();
+		}
+	}
+
+	protected SshClient client(int idx) {
+		return multiplex ? ssh : clients[idx % clients.length];
+	}
+}
@@ -0,0 +1,54 @@
+package com.sshtools.pushsftp.bench;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.client.tasks.PullTask.PullTaskBuilder;
+
+/**
+ * Measures <code>pull</code> of a file placed directly in the server's root.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PullBenchmark extends ChunkedTransferBenchmark {
+
+	private final static String FOLDER = "pull";
+
+	@Setup(Level.Trial)
+	public void setupRemoteFile() throws Exception {
+		var dir = Files.createDirectories(remote.resolve(FOLDER));
+		Files.copy(source, dir.resolve(source.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+		Files.createDirectories(local.resolve(FOLDER));
+	}
+
+	@Benchmark
+	public void pull() throws Exception {
+		ssh.runTask(PullTaskBuilder.create().
+			withClients(this::client).
+			withPrimarySftpClient(sftp).
+			withPaths(FOLDER + "/" + source.getFileName()).
+			withChunks(chunks).
+			withDigest(digest).
+			withBlocksize(blocksize).
+			withAsyncRequests(asyncRequests).
+			withLocalFolder(Optional.of(local.resolve(FOLDER))).
+			withIntegrityVerification(verify).
+			withIgnoreIntegrity(true).
+			build());
+	}
+}
@@ -0,0 +1,91 @@
+package com.sshtools.pushsftp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.client.tasks.PushTask.PushTaskBuilder;
+import com.sshtools.pushsftp.tasks.DeltaPush.DeltaPushBuilder;
+import com.sshtools.pushsftp.tasks.ResumablePush.ResumablePushBuilder;
+
+/**
+ * Measures <code>push</code>. The <code>task</code> mode is the default
+ * transfer, <code>resumable</code> is <code>push --resume</code> and
+ * <code>delta</code> is <code>push --delta</code>. After the first
+ * invocation the remote file is identical, so <code>delta</code> measures
+ * the cost of comparing an unchanged file.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PushBenchmark extends ChunkedTransferBenchmark {
+
+	private final static String FOLDER = "push";
+
+	@Param({ "task", "resumable", "delta" })
+	public String mode;
+
+	@Setup(Level.Trial)
+	public void setupFolder() throws Exception {
+		sftp.mkdirs(FOLDER);
+	}
+
+	@Benchmark
+	public void push() throws Exception {
+		switch(mode) {
+		case "resumable":
+			ResumablePushBuilder.create().
+				withClients(this::client).
+				withReleaseClient(c -> {}).
+				withPrimarySftpClient(sftp).
+				withPaths(source).
+				withChunks(chunks).
+				withDigest(digest).
+				withBlocksize(blocksize).
+				withAsyncRequests(asyncRequests).
+				withRemoteFolder(FOLDER).
+				withJournalDirectory(local.resolve("journals")).
+				withTarget(BenchServer.USERNAME + "@localhost:" + server.port()).
+				build().call();
+			break;
+		case "delta":
+			DeltaPushBuilder.create().
+				withClients(this::client).
+				withReleaseClient(c -> {}).
+				withPrimarySftpClient(sftp).
+				withPaths(source).
+				withChunks(chunks).
+				withDigest(digest).
+				withBlocksize(blocksize).
+				withAsyncRequests(asyncRequests).
+				withRemoteFolder(FOLDER).
+				build().call();
+			break;
+		default:
+			ssh.runTask(PushTaskBuilder.create().
+				withClients(this::client).
+				withPrimarySftpClient(sftp).
+				withPaths(source).
+				withChunks(chunks).
+				withDigest(digest).
+				withBlocksize(blocksize).
+				withAsyncRequests(asyncRequests).
+				withRemoteFolder(FOLDER).
+				withIntegrityVerification(verify).
+				withIgnoreIntegrity(true).
+				build());
+			break;
+		}
+	}
+}
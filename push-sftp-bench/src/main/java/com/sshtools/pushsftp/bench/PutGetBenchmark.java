@@ -0,0 +1,44 @@
+package com.sshtools.pushsftp.bench;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures single channel <code>put</code> and <code>get</code>.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PutGetBenchmark extends AbstractTransferBenchmark {
+
+	private final static String FOLDER = "putget";
+
+	@Setup(Level.Trial)
+	public void setupRemoteFile() throws Exception {
+		var dir = Files.createDirectories(remote.resolve(FOLDER));
+		Files.copy(source, dir.resolve("get.bin"), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Benchmark
+	public void put() throws Exception {
+		sftp.put(source.toString(), FOLDER + "/put.bin");
+	}
+
+	@Benchmark
+	public void get() throws Exception {
+		sftp.get(FOLDER + "/get.bin", local.resolve("get.bin").toString());
+	}
+}
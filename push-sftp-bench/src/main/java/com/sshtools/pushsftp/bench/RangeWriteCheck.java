@@ -0,0 +1,109 @@
+package com.sshtools.pushsftp.bench;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.pushsftp.tasks.DeltaPush.DeltaPushBuilder;
+import com.sshtools.pushsftp.tasks.ResumablePush.ResumablePushBuilder;
+
+/**
+ * Checks against a {@link BenchServer} that uploads which send ranges of a
+ * file at once leave the remote file identical to the local one, in
+ * particular that sending the range at the start of the file does not
+ * truncate ranges already written by other workers. Not a benchmark, run it
+ * with
+ * <pre>
+ * java -cp push-sftp-bench/target/benchmarks.jar com.sshtools.pushsftp.bench.RangeWriteCheck
+ * </pre>
+ * It exits with a non-zero status if any check fails.
+ */
+public final class RangeWriteCheck {
+
+	private final static String FOLDER = "check";
+	private final static int BLOCK_SIZE = 1024 * 1024;
+	private final static int CHUNKS = 4;
+	private final static int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		var local = Files.createTempDirectory("push-sftp-check-local");
+		var remote = Files.createTempDirectory("push-sftp-check-remote");
+		var failed = 0;
+		try(var server = new BenchServer(remote)) {
+			var ssh = server.connect();
+			try(var sftp = SftpClientBuilder.create().withClient(ssh).build()) {
+				sftp.mkdirs(FOLDER);
+				var source = AbstractTransferBenchmark.createFile(local.resolve("source.bin"), BLOCK_SIZE * 6 + 12345);
+				var target = remote.resolve(FOLDER).resolve("source.bin");
+				for(int i = 0 ; i < ROUNDS; i++) {
+					Files.deleteIfExists(target);
+					resumable(server, ssh, sftp, local, source);
+					failed += check("resumable push of a new file", source, target);
+
+					corrupt(target, 0);
+					corrupt(target, BLOCK_SIZE * 2);
+					delta(ssh, sftp, source);
+					failed += check("delta push with the first and third blocks changed", source, target);
+				}
+			}
+			finally {
+				ssh.disconnect();
+			}
+		}
+		finally {
+			AbstractTransferBenchmark.delete(local);
+			AbstractTransferBenchmark.delete(remote);
+		}
+		if(failed > 0) {
+			System.err.println(failed + " check(s) failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	private static void resumable(BenchServer server, SshClient ssh, SftpClient sftp, Path local, Path source) throws Exception {
+		ResumablePushBuilder.create().
+			withClients(idx -> ssh).
+			withReleaseClient(c -> {}).
+			withPrimarySftpClient(sftp).
+			withPaths(source).
+			withChunks(CHUNKS).
+			withRemoteFolder(FOLDER).
+			withJournalDirectory(local.resolve("journals")).
+			withTarget(BenchServer.USERNAME + "@localhost:" + server.port()).
+			build().call();
+	}
+
+	private static void delta(SshClient ssh, SftpClient sftp, Path source) throws Exception {
+		DeltaPushBuilder.create().
+			withClients(idx -> ssh).
+			withReleaseClient(c -> {}).
+			withPrimarySftpClient(sftp).
+			withPaths(source).
+			withChunks(CHUNKS).
+			withDeltaBlockSize(BLOCK_SIZE).
+			withRemoteFolder(FOLDER).
+			build().call();
+	}
+
+	private static void corrupt(Path file, long offset) throws Exception {
+		try(var raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.seek(offset);
+			var b = raf.read();
+			raf.seek(offset);
+			raf.write(b ^ 0xff);
+		}
+	}
+
+	private static int check(String name, Path expected, Path actual) throws Exception {
+		var mismatch = Files.mismatch(expected, actual);
+		if(mismatch == -1)
+			return 0;
+		System.err.println(String.format("%s: remote file differs at %d (%d bytes, expected %d)", name, mismatch,
+				Files.size(actual), Files.size(expected)));
+		return 1;
+	}
+}
@@ -0,0 +1,237 @@
+package com.sshtools.pushsftp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * Commands running in the background of the interactive shell. Each job runs
+ * a fresh instance of its command, on its own SFTP channel, so the shell can
+ * carry on with other commands. Transfers made by a job report their progress
+ * to the job rather than to the terminal.
+ */
+public final class BackgroundJobs {
+
+	public enum State {
+		RUNNING, DONE, FAILED, KILLED
+	}
+
+	public final static class Job implements FileTransferProgress {
+		private final int id;
+		private final String description;
+		private final long started = System.currentTimeMillis();
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile Thread thread;
+		private volatile String file = "";
+		private volatile long bytes;
+		private volatile long total;
+		private volatile long fileStarted = started;
+		private volatile String lastMessage = "";
+		private volatile boolean killed;
+		private volatile State state = State.RUNNING;
+		private volatile int exitCode;
+
+		private Job(int id, String description) {
+			this.id = id;
+			this.description = description;
+		}
+
+		public int id() {
+			return id;
+		}
+
+		public String description() {
+			return description;
+		}
+
+		public long started() {
+			return started;
+		}
+
+		public String file() {
+			return file;
+		}
+
+		public long bytes() {
+			return bytes;
+		}
+
+		public long total() {
+			return total;
+		}
+
+		public long fileStarted() {
+			return fileStarted;
+		}
+
+		public String lastMessage() {
+			return lastMessage;
+		}
+
+		public State state() {
+			return state;
+		}
+
+		public int exitCode() {
+			return exitCode;
+		}
+
+		public boolean isDone() {
+			return state != State.RUNNING;
+		}
+
+		public void kill() {
+			killed = true;
+			var t = thread;
+			if(t != null)
+				t.interrupt();
+		}
+
+		/**
+		 * Wait for the job to finish.
+		 *
+		 * @param timeout maximum time to wait in milliseconds, or zero to wait forever
+		 * @return whether the job has finished
+		 * @throws InterruptedException if interrupted
+		 */
+		public boolean waitFor(long timeout) throws InterruptedException {
+			if(timeout == 0) {
+				finished.await();
+				return true;
+			}
+			return finished.await(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void started(long bytesTotal, String file) {
+			this.file = FileUtils.getFilename(file);
+			this.total = bytesTotal;
+			this.bytes = 0;
+			this.fileStarted = System.currentTimeMillis();
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return killed;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			bytes = bytesSoFar;
+		}
+
+		@Override
+		public void completed() {
+			bytes = total;
+		}
+	}
+
+	private final static ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+	private final PSFTPInteractive root;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		var t = new Thread(r, "Job");
+		t.setDaemon(true);
+		return t;
+	});
+	private final AtomicInteger nextId = new AtomicInteger(1);
+	private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+
+	BackgroundJobs(PSFTPInteractive root) {
+		this.root = root;
+	}
+
+	/**
+	 * Get the job running on the current thread, if any.
+	 *
+	 * @return job
+	 */
+	public static Optional<Job> current() {
+		return Optional.ofNullable(CURRENT.get());
+	}
+
+	/**
+	 * Run a command in the background.
+	 *
+	 * @param args command and its arguments
+	 * @return job
+	 * @throws Exception if the job's SFTP channel cannot be opened
+	 */
+	public Job submit(List<String> args) throws Exception {
+		var pwd = root.getSftpClient().pwd();
+		var job = new Job(nextId.getAndIncrement(), String.join(" ", args));
+		jobs.put(job.id, job);
+		executor.execute(() -> {
+			job.thread = Thread.currentThread();
+			CURRENT.set(job);
+			try(var sftp = root.openJobSftpClient(pwd)) {
+				if(job.killed)
+					throw new InterruptedException("Killed.");
+				root.setJobSftpClient(sftp);
+				job.exitCode = root.executeDetached(args);
+				job.state = job.killed ? State.KILLED : (job.exitCode == 0 ? State.DONE : State.FAILED);
+			}
+			catch(Exception e) {
+				job.lastMessage = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+				job.exitCode = 1;
+				job.state = job.killed ? State.KILLED : State.FAILED;
+			}
+			finally {
+				root.setJobSftpClient(null);
+				CURRENT.remove();
+				job.thread = null;
+				Thread.interrupted();
+				job.finished.countDown();
+			}
+		});
+		return job;
+	}
+
+	public Optional<Job> get(int id) {
+		return Optional.ofNullable(jobs.get(id));
+	}
+
+	/**
+	 * Get all jobs, oldest first.
+	 *
+	 * @return jobs
+	 */
+	public List<Job> list() {
+		return new ArrayList<>(jobs.values());
+	}
+
+	/**
+	 * Forget a finished job.
+	 *
+	 * @param job job
+	 */
+	public void remove(Job job) {
+		if(job.isDone())
+			jobs.remove(job.id);
+	}
+
+	public boolean isEmpty() {
+		return jobs.isEmpty();
+	}
+
+	/**
+	 * Kill all jobs that are still running.
+	 */
+	public void close() {
+		for(var job : list()) {
+			if(!job.isDone())
+				job.kill();
+		}
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,209 @@
+package com.sshtools.pushsftp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jline.reader.Parser.ParseContext;
+import org.jline.reader.impl.DefaultParser;
+
+/**
+ * Runs a batch script. As well as running one command per line, a script may
+ * run a command in the background by ending its line with <code>&amp;</code>,
+ * wait for all background commands with <code>wait</code>, and run a group of
+ * commands at the same time using a block, which ends once all of its commands
+ * have.
+ * <pre>
+ * parallel {
+ *   push logs
+ *   push images
+ * }
+ * push index.html &amp;
+ * wait
+ * </pre>
+ * No more than a fixed number of commands run at once. Each command that is
+ * not run in the foreground gets its own SFTP channel, starting in the remote
+ * directory that was current when the command was started. The exit code of
+ * every command is collected.
+ */
+final class BatchScript {
+
+	private final static Set<String> EXIT_COMMANDS = Set.of("bye", "quit", "exit");
+
+	private final static class Line {
+		private final int number;
+		private final String text;
+
+		private Line(int number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+	}
+
+	private final static class Result {
+		private final Line line;
+		private final int exitCode;
+
+		private Result(Line line, int exitCode) {
+			this.line = line;
+			this.exitCode = exitCode;
+		}
+	}
+
+	private final PSFTPInteractive root;
+	private final ExecutorService executor;
+	private final DefaultParser parser = new DefaultParser();
+	private final List<Future<Result>> background = new ArrayList<>();
+	private final List<Result> results = Collections.synchronizedList(new ArrayList<>());
+
+	BatchScript(PSFTPInteractive root, int jobs) {
+		this.root = root;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, jobs));
+	}
+
+	/**
+	 * Run the script, returning once every command, including those in the
+	 * background, has finished.
+	 *
+	 * @param reader script
+	 * @return number of commands that failed
+	 * @throws IOException on error reading or parsing the script
+	 */
+	int run(BufferedReader reader) throws IOException {
+		try {
+			String text;
+			var number = 0;
+			List<Future<Result>> block = null;
+			while((text = reader.readLine()) != null) {
+				number++;
+				var trimmed = text.trim();
+				if(trimmed.isEmpty() || trimmed.startsWith("#"))
+					continue;
+
+				if(block != null) {
+					if(trimmed.equals("}")) {
+						waitFor(block);
+						block = null;
+					}
+					else if(isParallel(trimmed))
+						throw new IOException(String.format("Line %d: parallel blocks may not be nested.", number));
+					else
+						block.add(submit(new Line(number, withoutBackground(trimmed))));
+				}
+				else if(isParallel(trimmed)) {
+					block = new ArrayList<>();
+				}
+				else if(trimmed.equals("wait")) {
+					waitFor(background);
+				}
+				else if(trimmed.endsWith("&") && !trimmed.endsWith("&&")) {
+					background.add(submit(new Line(number, withoutBackground(trimmed))));
+				}
+				else if(EXIT_COMMANDS.contains(trimmed.split("\\s+")[0])) {
+					break;
+				}
+				else {
+					results.add(execute(new Line(number, trimmed)));
+				}
+			}
+			if(block != null) {
+				waitFor(block);
+				throw new IOException("Parallel block is not closed.");
+			}
+		}
+		finally {
+			waitFor(background);
+			executor.shutdown();
+		}
+
+		var failed = new ArrayList<Result>();
+		synchronized(results) {
+			for(var result : results) {
+				if(result.exitCode != 0)
+					failed.add(result);
+			}
+		}
+		failed.sort(Comparator.comparingInt(r -> r.line.number));
+		for(var result : failed) {
+			root.io().error("Line {0}: ''{1}'' exited with {2}", result.line.number, result.line.text, result.exitCode);
+		}
+		return failed.size();
+	}
+
+	private Future<Result> submit(Line line) throws IOException {
+		String pwd;
+		try {
+			pwd = root.getSftpClient().pwd();
+		} catch (Exception e) {
+			throw new IOException("Failed to get remote directory.", e);
+		}
+		return executor.submit(() -> {
+			Result result;
+			try(var sftp = root.openJobSftpClient(pwd)) {
+				root.setJobSftpClient(sftp);
+				try {
+					result = execute(line);
+				}
+				finally {
+					root.setJobSftpClient(null);
+				}
+			}
+			catch(Exception e) {
+				root.io().error("Line {0}: failed to start ''{1}''. {2}", line.number, line.text, e.getMessage());
+				result = new Result(line, 1);
+			}
+			results.add(result);
+			return result;
+		});
+	}
+
+	private Result execute(Line line) {
+		try {
+			var words = parser.parse(line.text, line.text.length(), ParseContext.ACCEPT_LINE).words();
+			return new Result(line, root.executeDetached(words));
+		}
+		catch(Exception e) {
+			root.io().error("Line {0}: ''{1}'' failed. {2}", line.number, line.text, e.getMessage());
+			return new Result(line, 1);
+		}
+	}
+
+	private static void waitFor(List<Future<Result>> futures) throws IOException {
+		try {
+			for(var future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					/* Recorded as a failed result */
+				}
+			}
+		}
+		catch(InterruptedException ie) {
+			throw new IOException("Interrupted waiting for commands.", ie);
+		}
+		finally {
+			futures.clear();
+		}
+	}
+
+	/**
+	 * Remove a trailing <code>&amp;</code>, as every command in a block already
+	 * runs alongside the others, and commands never become background jobs of
+	 * the interactive shell when run from a script.
+	 */
+	private static String withoutBackground(String line) {
+		return line.endsWith("&") && !line.endsWith("&&") ? line.substring(0, line.length() - 1).trim() : line;
+	}
+
+	private static boolean isParallel(String line) {
+		return line.matches("parallel\\s*\\{");
+	}
+}
@@ -10,10 +10,16 @@ import com.sshtools.pushsftp.commands.Chgrp;
 import com.sshtools.pushsftp.commands.Chmod;
 import com.sshtools.pushsftp.commands.Chown;
 import com.sshtools.pushsftp.commands.Df;
+import com.sshtools.pushsftp.commands.Du;
+import com.sshtools.pushsftp.commands.Find;
+import com.sshtools.pushsftp.commands.Fg;
 import com.sshtools.pushsftp.commands.Get;
 import com.sshtools.pushsftp.commands.Help;
 import com.sshtools.pushsftp.commands.Info;
+import com.sshtools.pushsftp.commands.Jobs;
+import com.sshtools.pushsftp.commands.Kill;
 import com.sshtools.pushsftp.commands.Lcd;
+import com.sshtools.pushsftp.commands.Limit;
 import com.sshtools.pushsftp.commands.Lls;
 import com.sshtools.pushsftp.commands.Lmkdir;
 import com.sshtools.pushsftp.commands.Ln;
@@ -28,17 +34,19 @@ import com.sshtools.pushsftp.commands.Rename;
 import com.sshtools.pushsftp.commands.Rm;
 import com.sshtools.pushsftp.commands.Rmdir;
 import com.sshtools.pushsftp.commands.Symlink;
+import com.sshtools.pushsftp.commands.Sync;
 import com.sshtools.pushsftp.commands.Umask;
+import com.sshtools.pushsftp.commands.Wait;
 
 import picocli.CommandLine.Command;
 
 @Command(name = "push-sftp", mixinStandardHelpOptions = false, 
 			description = "Interactive shell", 
 			subcommands = { Ls.class, Cd.class, Lcd.class, Pwd.class, Lls.class, 
-					Lpwd.class, Help.class, Rm.class, Rmdir.class, Df.class,
+					Lpwd.class, Help.class, Rm.class, Rmdir.class, Df.class, Du.class, Find.class,
 					Mkdir.class, Rename.class, Ln.class, Symlink.class, Lmkdir.class, Umask.class, Bye.class, Chgrp.class, 
 					Chown.class, Chmod.class, Push.class, Pull.class, Put.class, Get.class,
-					ChildUpdateCommand.class, Info.class
+					ChildUpdateCommand.class, Info.class, Sync.class, Jobs.class, Fg.class, Wait.class, Kill.class, Limit.class
 					})
 public class PSFTPCommands implements InteractiveSshCommand {
 
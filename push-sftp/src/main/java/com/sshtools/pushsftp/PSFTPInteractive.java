@@ -1,12 +1,15 @@
 package com.sshtools.pushsftp;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -42,10 +45,16 @@ import com.sshtools.pushsftp.commands.Chgrp;
 import com.sshtools.pushsftp.commands.Chmod;
 import com.sshtools.pushsftp.commands.Chown;
 import com.sshtools.pushsftp.commands.Df;
+import com.sshtools.pushsftp.commands.Du;
+import com.sshtools.pushsftp.commands.Find;
 import com.sshtools.pushsftp.commands.Get;
 import com.sshtools.pushsftp.commands.Help;
+import com.sshtools.pushsftp.commands.Fg;
 import com.sshtools.pushsftp.commands.Info;
+import com.sshtools.pushsftp.commands.Jobs;
+import com.sshtools.pushsftp.commands.Kill;
 import com.sshtools.pushsftp.commands.Lcd;
+import com.sshtools.pushsftp.commands.Limit;
 import com.sshtools.pushsftp.commands.Lls;
 import com.sshtools.pushsftp.commands.Lmkdir;
 import com.sshtools.pushsftp.commands.Ln;
@@ -61,7 +70,14 @@ import com.sshtools.pushsftp.commands.Rm;
 import com.sshtools.pushsftp.commands.Rmdir;
 import com.sshtools.pushsftp.commands.SftpCommand;
 import com.sshtools.pushsftp.commands.Symlink;
+import com.sshtools.pushsftp.commands.Sync;
 import com.sshtools.pushsftp.commands.Umask;
+import com.sshtools.pushsftp.commands.Wait;
+import com.sshtools.pushsftp.util.ConnectionPool;
+import com.sshtools.pushsftp.util.ListingCache;
+import com.sshtools.pushsftp.util.Metrics;
+import com.sshtools.pushsftp.util.NameCache;
+import com.sshtools.pushsftp.util.RateLimiter;
 import com.sshtools.sequins.Progress.Level;
 
 import picocli.CommandLine;
@@ -72,10 +88,10 @@ import picocli.CommandLine.Parameters;
 import picocli.shell.jline3.PicocliCommands;
 
 @Command(name = "push-sftp-interactive", description = "Push secure file transfer", subcommands = { Ls.class, Cd.class, Lcd.class, Pwd.class, Lls.class, 
-		Lpwd.class, Help.class, Rm.class, Rmdir.class, Df.class,
+		Lpwd.class, Help.class, Rm.class, Rmdir.class, Df.class, Du.class, Find.class,
 		Mkdir.class, Rename.class, Lmkdir.class, Ln.class, Symlink.class, Umask.class, Bye.class, Chgrp.class, 
 		Chown.class, Chmod.class, Push.class, Pull.class, Put.class, Get.class,
-		ChildUpdateCommand.class, Info.class
+		ChildUpdateCommand.class, Info.class, Sync.class, Jobs.class, Fg.class, Wait.class, Kill.class, Limit.class
 		}, versionProvider = PSFTPInteractive.Version.class)
 @JaulApp(id = "com.sshtools.PushSFTP", category = AppCategory.CLI, updaterId = "47", updatesUrl = "https://sshtools-public.s3.eu-west-1.amazonaws.com/push-sftp/${phase}/updates.xml")
 public class PSFTPInteractive extends CliCommand {
@@ -112,12 +128,27 @@ public class PSFTPInteractive extends CliCommand {
 	@Option(names = { "-b", "--batch" }, paramLabel = "SCRIPT", description = "run a batch script")
 	Optional<File> batchFile;
 
+	@Option(names = { "--batch-jobs" }, paramLabel = "COUNT", description = "the maximum number of batch script commands run at the same time, by 'parallel' blocks or with '&'")
+	int batchJobs = 4;
+
 	@Option(names = { "-d", "--local-dir" }, paramLabel = "PATH", description = "The local directory to start in")
     Optional<Path> localDirectory;
 	
 	@Option(names = { "-r", "--remote-dir" }, paramLabel = "PATH", description = "The remote directory to start in")
 	Optional<String> remoteDirectory ;
 	
+	@Option(names = { "--pool-idle-timeout" }, paramLabel = "SECONDS", description = "how long an unused chunk connection is kept open for re-use")
+	long poolIdleTimeout = 300;
+
+	@Option(names = { "--pool-size" }, paramLabel = "COUNT", description = "the maximum number of unused chunk connections kept open for re-use")
+	int poolSize = 8;
+
+	@Option(names = { "--limit" }, paramLabel = "RATE", description = "limit the combined rate of all transfers, e.g. 500K or 10M bytes per second")
+	Optional<String> limit;
+
+	@Option(names = { "--cache-ttl" }, paramLabel = "SECONDS", description = "how long remote directory listings are cached for, or 0 to not cache them")
+	long cacheTtl = 15;
+	
 	@Parameters(index = "0", arity = "0..1", description = "The remote server, with optional username.")
 	private Optional<String> destination;
 	
@@ -127,13 +158,80 @@ public class PSFTPInteractive extends CliCommand {
 	private Optional<String> cachedHostname = Optional.empty();
 	private Optional<String> cachedUsername = Optional.empty();
 	private Optional<Integer> cachedPort = Optional.empty();
+	private ConnectionPool connectionPool;
+	private ConnectionPool compressedConnectionPool;
+	private ListingCache listingCache;
+	private BackgroundJobs jobs;
+	private RateLimiter rateLimiter;
+	private NameCache nameCache;
+	private final Metrics metrics = new Metrics();
+	private final static String ZLIB_OPENSSH = "zlib@openssh.com";
+
+	/**
+	 * How long to wait for compression to be in use after asking for keys to
+	 * be exchanged again.
+	 */
+	private final static long COMPRESSION_TIMEOUT = 10000;
+
+	private volatile boolean compressionUnavailable;
+
+	private final ThreadLocal<SftpClient> jobSftp = new ThreadLocal<>();
 
 	public PSFTPInteractive() {
 		super(Optional.empty());
 	}
 
 	public SftpClient getSftpClient() {
-		return sftp;
+		var job = jobSftp.get();
+		return job == null ? sftp : job;
+	}
+
+	/**
+	 * Set the SFTP client used by commands run on the current thread, for batch
+	 * commands that run at the same time as others.
+	 *
+	 * @param sftp client, or <code>null</code> to use the session's own client
+	 */
+	void setJobSftpClient(SftpClient sftp) {
+		if(sftp == null)
+			jobSftp.remove();
+		else
+			jobSftp.set(sftp);
+	}
+
+	/**
+	 * Open a new SFTP channel for a command that runs at the same time as
+	 * others, starting in the given remote directory and the current local
+	 * directory.
+	 *
+	 * @param pwd remote directory
+	 * @return client
+	 * @throws Exception on error
+	 */
+	SftpClient openJobSftpClient(String pwd) throws Exception {
+		var sftp = SftpClientBuilder.create().withClient(getSshClient()).build();
+		try {
+			sftp.cd(pwd);
+			sftp.lcd(getLcwd().toAbsolutePath().toString());
+			return sftp;
+		}
+		catch(Exception e) {
+			sftp.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Run a command using a new instance of the interactive commands, so it does
+	 * not share option values with a command running on another thread.
+	 *
+	 * @param args command and its arguments
+	 * @return exit code
+	 */
+	int executeDetached(List<String> args) {
+		var cli = new CommandLine(createInteractiveCommand());
+		cli.setExecutionExceptionHandler(new ExceptionHandler(this));
+		return cli.execute(args.toArray(new String[0]));
 	}
 
 	@Override
@@ -144,6 +242,7 @@ public class PSFTPInteractive extends CliCommand {
 //			img.draw();
 			
 			sftp = SftpClientBuilder.create().withClient(ssh).build();
+			getNameCache().clear();
 			
 			sftp.lcd(getLcwd().toAbsolutePath().toString());
 			if(remoteDirectory.isPresent()) {
@@ -265,7 +364,7 @@ public class PSFTPInteractive extends CliCommand {
 					withPaths(files).
 					withRemoteFolder(Path.of(getSftpClient().pwd())).
 					withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
-					withProgress(SftpCommand.fileTransferProgress(io(), progress, "Uploading {0}")).build());
+					withProgress(getRateLimiter().limit(SftpCommand.fileTransferProgress(io(), progress, "Uploading {0}"))).build());
 			}
 			return false;
 		}
@@ -282,8 +381,10 @@ public class PSFTPInteractive extends CliCommand {
 		File script = batchFile.get();
 		if(script.exists()) {
 			io().message("Executing batch script {0}", script.getName());
-			try(InputStream in = new FileInputStream(script)) {
-				source(in);
+			try(var in = new BufferedReader(new InputStreamReader(new FileInputStream(script)))) {
+				var failed = new BatchScript(this, batchJobs).run(in);
+				if(failed > 0)
+					throw new IOException(String.format("%d batch command(s) failed.", failed));
 			}
 		} else {
 			io().error("{0} not found!", script);
@@ -393,6 +494,167 @@ public class PSFTPInteractive extends CliCommand {
 		return ssh;
 	}
 
+	public ConnectionPool getConnectionPool() {
+		return getConnectionPool(false);
+	}
+
+	/**
+	 * Get the pool of additional connections, either as negotiated when
+	 * connecting, or with zlib compression negotiated in both directions for
+	 * data that is worth compressing.
+	 *
+	 * @param compressed compressed
+	 * @return pool
+	 */
+	public synchronized ConnectionPool getConnectionPool(boolean compressed) {
+		if(compressed) {
+			if(compressedConnectionPool == null) {
+				compressedConnectionPool = new ConnectionPool((first) -> {
+					var started = System.nanoTime();
+					var client = connect(false, first);
+					try {
+						compress(client);
+					}
+					catch(IOException | SshException | RuntimeException e) {
+						client.disconnect();
+						throw e;
+					}
+					metrics.histogram(Metrics.CONNECT).recordSince(started);
+					return client;
+				}, 
+						Duration.ofSeconds(poolIdleTimeout), poolSize);
+			}
+			return compressedConnectionPool;
+		}
+		if(connectionPool == null) {
+			connectionPool = new ConnectionPool((first) -> {
+				var started = System.nanoTime();
+				var client = connect(false, first);
+				metrics.histogram(Metrics.CONNECT).recordSince(started);
+				return client;
+			}, 
+					Duration.ofSeconds(poolIdleTimeout), poolSize);
+		}
+		return connectionPool;
+	}
+
+	/**
+	 * Get whether compressed connections may be tried, which they may not
+	 * once one could not be made.
+	 *
+	 * @return available
+	 */
+	public boolean isCompressionAvailable() {
+		return !compressionUnavailable;
+	}
+
+	/**
+	 * Note that a compressed connection could not be made, so transfers use
+	 * uncompressed connections from now on.
+	 *
+	 * @return whether this is the first failure
+	 */
+	public synchronized boolean compressionFailed() {
+		var first = !compressionUnavailable;
+		compressionUnavailable = true;
+		return first;
+	}
+
+	public synchronized ListingCache getListingCache() {
+		if(listingCache == null) {
+			listingCache = new ListingCache(Duration.ofSeconds(cacheTtl), metrics);
+		}
+		return listingCache;
+	}
+
+	public synchronized NameCache getNameCache() {
+		if(nameCache == null) {
+			nameCache = new NameCache();
+		}
+		return nameCache;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized RateLimiter getRateLimiter() {
+		if(rateLimiter == null) {
+			rateLimiter = new RateLimiter(limit.map(RateLimiter::parse).orElse(0l));
+		}
+		return rateLimiter;
+	}
+
+	/**
+	 * Get whether commands are being typed at the interactive prompt, rather
+	 * than run from a batch script, so may be left running as background jobs
+	 * that outlive the command that started them.
+	 *
+	 * @return at the prompt
+	 */
+	public boolean isPrompt() {
+		return batchFile.isEmpty() && (files == null || files.length == 0);
+	}
+
+	public synchronized BackgroundJobs getJobs() {
+		if(jobs == null) {
+			jobs = new BackgroundJobs(this);
+		}
+		return jobs;
+	}
+
+	public synchronized void closeJobs() {
+		if(jobs != null) {
+			jobs.close();
+			jobs = null;
+		}
+	}
+
+	public synchronized void closeConnectionPool() {
+		if(connectionPool != null) {
+			connectionPool.close();
+			connectionPool = null;
+		}
+		if(compressedConnectionPool != null) {
+			compressedConnectionPool.close();
+			compressedConnectionPool = null;
+		}
+		compressionUnavailable = false;
+	}
+
+	/**
+	 * Prefer zlib compression on a new connection, and exchange keys again so
+	 * it is used from now on. OpenSSH only offers the delayed variant by
+	 * default, so that is preferred, which is the same as plain zlib once
+	 * authenticated. The key exchange only starts here, so this waits until
+	 * compression is in use in both directions, and fails if it is not by the
+	 * time it should be, as when the server offers neither or zlib is not
+	 * available locally. The caller then falls back to uncompressed
+	 * connections.
+	 */
+	private static void compress(SshClient client) throws IOException, SshException {
+		var con = client.getConnection();
+		var ctx = con.getContext();
+		ctx.setPreferredCompressionCS(ZLIB_OPENSSH);
+		ctx.setPreferredCompressionSC(ZLIB_OPENSSH);
+		client.forceKeyExchange();
+		var deadline = System.currentTimeMillis() + COMPRESSION_TIMEOUT;
+		while(!isZlib(con.getCompressionInUseCS()) || !isZlib(con.getCompressionInUseSC())) {
+			if(System.currentTimeMillis() > deadline)
+				throw new IOException("Compression could not be negotiated with the server.");
+			try {
+				Thread.sleep(50);
+			}
+			catch(InterruptedException ie) {
+				throw new InterruptedIOException("Interrupted.");
+			}
+		}
+	}
+
+	private static boolean isZlib(String compression) {
+		return compression != null && compression.startsWith("zlib");
+	}
+
 	@Override
 	protected Object createInteractiveCommand() {
 		return new PSFTPCommands(this);
@@ -463,8 +725,7 @@ public class PSFTPInteractive extends CliCommand {
                     current = getUserDir();
                 }
                 StyleResolver resolver = Styles.lsStyle();
-                for(var it = sftp.lsIterator(current); it.hasNext(); ) {
-                	var p = it.next();
+                for(var p : getListingCache().list(sftp, current)) {
                 	if(!accept(p))
                 		continue;
                 	String value = curBuf + p.getFilename();
@@ -2,6 +2,8 @@ package com.sshtools.pushsftp.commands;
 
 import org.jline.reader.EndOfFileException;
 
+import com.sshtools.pushsftp.PSFTPInteractive;
+
 import picocli.CommandLine.Command;
 
 @Command(name = "bye", usageHelpAutoWidth = true, aliases = { "quit", "exit" }, mixinStandardHelpOptions = false, description = "Quit interactive command")
@@ -9,6 +11,9 @@ public class Bye extends SftpCommand {
 
 	@Override
 	protected Integer onCall() throws Exception {
+		var root = (PSFTPInteractive)getRootCommand();
+		root.closeJobs();
+		root.closeConnectionPool();
 		throw new EndOfFileException();
 	}
 	
@@ -10,6 +10,12 @@ public class Chgrp extends SftpCommand  {
 	@Option(names = { "-h" }, description = "Do not follow symlinks")
 	private boolean dontFollowSymlinks;
 
+	@Option(names = { "-R", "--recursive" }, description = "also change everything below directories")
+	private boolean recursive;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels to make changes over at once with --recursive", defaultValue = "6")
+	private int channels;
+
 	@Parameters(index = "0", description = "The GID or name of the group")
 	private String gid;
 
@@ -22,9 +28,8 @@ public class Chgrp extends SftpCommand  {
 
 	@Override
 	protected Integer onCall() throws Exception {
-		expandRemoteAndDo((fp) -> {
-			getSftpClient().chgrp(fp, gid);
-		}, false, path);
+		var group = String.valueOf(getGID(gid));
+		changeAndDo(path, recursive, channels, (sftp, fp) -> sftp.chgrp(fp, group));
 		return 0;
 	}
 }
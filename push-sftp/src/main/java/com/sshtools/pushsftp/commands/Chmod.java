@@ -1,6 +1,9 @@
 package com.sshtools.pushsftp.commands;
 
+import java.util.regex.Pattern;
+
 import com.sshtools.common.sftp.PosixPermissions.PosixPermissionsBuilder;
+import com.sshtools.pushsftp.util.TreeUpdate;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -9,9 +12,17 @@ import picocli.CommandLine.Parameters;
 @Command(name = "chmod", usageHelpAutoWidth = true, mixinStandardHelpOptions = false, description = "Change permissions of file path")
 public class Chmod extends SftpCommand  {
 
+	private final static Pattern OPS = Pattern.compile("([-+=])([rwxXst]*)");
+
 	@Option(names = { "-h" }, description = "Do not follow symlinks")
 	private boolean dontFollowSymlinks;
 
+	@Option(names = { "-R", "--recursive" }, description = "also change everything below directories. Directories are changed before their contents if the new permissions let the owner read and search them, otherwise after")
+	private boolean recursive;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels to make changes over at once with --recursive", defaultValue = "6")
+	private int channels;
+
 	@Parameters(index = "0", description = "The new permissions")
 	private String perms;
 
@@ -24,9 +35,48 @@ public class Chmod extends SftpCommand  {
 
 	@Override
 	protected Integer onCall() throws Exception {
-		expandRemoteAndDo((fp) -> getSftpClient().chmod(PosixPermissionsBuilder.create().
-					withChmodArgumentString(perms).build(), fp), false, path);
+		var permissions = PosixPermissionsBuilder.create().
+				withChmodArgumentString(perms).build();
+		var order = grantsOwnerSearch(perms) ? TreeUpdate.Order.DIRECTORIES_FIRST : TreeUpdate.Order.DIRECTORIES_LAST;
+		changeAndDo(path, recursive, channels, order, (sftp, fp) -> sftp.chmod(permissions, fp));
 		return 0;
 	}
 
+	/**
+	 * Whether permissions, either octal or symbolic such as <code>u+rx</code>,
+	 * leave the owner able to read and search a directory, so it can be
+	 * changed before it is listed.
+	 */
+	static boolean grantsOwnerSearch(String perms) {
+		if(perms.matches("[0-7]+"))
+			return (Integer.parseInt(perms, 8) & 0500) == 0500;
+		var read = false;
+		var search = false;
+		for(var clause : perms.split(",")) {
+			var who = clause.replaceAll("[-+=].*", "");
+			if(!who.isEmpty() && !who.contains("u") && !who.contains("a"))
+				continue;
+			var ops = OPS.matcher(clause.substring(who.length()));
+			while(ops.find()) {
+				var op = ops.group(1);
+				var what = ops.group(2);
+				var r = what.contains("r");
+				var x = what.contains("x") || what.contains("X");
+				if(op.equals("=")) {
+					read = r;
+					search = x;
+				}
+				else if(op.equals("+")) {
+					read |= r;
+					search |= x;
+				}
+				else {
+					read &= !r;
+					search &= !x;
+				}
+			}
+		}
+		return read && search;
+	}
+
 }
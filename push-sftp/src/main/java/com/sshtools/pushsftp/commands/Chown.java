@@ -10,6 +10,12 @@ public class Chown extends SftpCommand  {
 	@Option(names = { "-h" }, description = "Do not follow symlinks")
 	private boolean dontFollowSymlinks;
 
+	@Option(names = { "-R", "--recursive" }, description = "also change everything below directories")
+	private boolean recursive;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels to make changes over at once with --recursive", defaultValue = "6")
+	private int channels;
+
 	@Parameters(index = "0", description = "The identifiers of the new owner")
 	private String uid;
 
@@ -23,31 +29,17 @@ public class Chown extends SftpCommand  {
 	@Override
 	protected Integer onCall() throws Exception {
 		
-		var UID = new StringBuffer();
-		var GID = new StringBuffer();
-		
-		if(uid.contains(":")) {
-			String[] tmp = uid.split(":");
-			UID.append(tmp[0].matches("\\d+") ? tmp[0] : getUID(tmp[0]));
-			if(tmp.length > 1) {
-				GID.append(tmp[1]);
-			}
-		} else {
-			UID.append(uid);
-		}
-		
-		expandRemoteAndDo((fp) -> {
+		var idx = uid.indexOf(':');
+		var user = String.valueOf(getUID(idx == -1 ? uid : uid.substring(0, idx)));
+		var group = idx == -1 || idx == uid.length() - 1 ? null : String.valueOf(getGID(uid.substring(idx + 1)));
 		
-			if(GID.length() > 0) {
-				getSftpClient().chown(UID.toString(), GID.toString(), fp);
+		changeAndDo(path, recursive, channels, (sftp, fp) -> {
+			if(group == null) {
+				sftp.chown(user, fp);
 			} else {
-				if(UID.length() > 0) {
-					getSftpClient().chown(UID.toString(), fp);
-				} else {
-					getSftpClient().chown(uid, fp);
-				}
+				sftp.chown(user, group, fp);
 			}
-		}, false, path);
+		});
 		return 0;
 	}
 }
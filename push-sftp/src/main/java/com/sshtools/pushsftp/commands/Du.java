@@ -0,0 +1,148 @@
+package com.sshtools.pushsftp.commands;
+
+import static com.sshtools.common.util.IOUtils.toByteSize;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.pushsftp.util.RemoteWalker;
+import com.sshtools.pushsftp.util.SftpChannels;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "du", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Display the space used by a remote directory tree")
+public class Du extends SftpCommand {
+
+	/**
+	 * Totals of a directory still being walked.
+	 */
+	private final static class Total {
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong files = new AtomicLong();
+	}
+
+	@Option(names = "-H", description = "human readable sizes")
+	private boolean humanReadable;
+
+	@Option(names = { "-a", "--all" }, description = "show files as well as directories")
+	private boolean all;
+
+	@Option(names = { "-s", "--summarize" }, description = "only show the total of each path")
+	private boolean summarize;
+
+	@Option(names = { "-d", "--max-depth" }, paramLabel = "DEPTH", description = "only show totals of directories (and files with --all) this many levels below each path")
+	private Optional<Integer> maxDepth;
+
+	@Option(names = { "-i", "--inodes" }, description = "show the number of files as well as their size")
+	private boolean inodes;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels used to list directories concurrently", defaultValue = "8")
+	private int channels;
+
+	@Parameters(arity = "0..", paramLabel = "PATH", description = "paths of directories to measure, the current directory if none")
+	private String[] paths;
+
+	public Du() {
+		super(FilenameCompletionMode.DIRECTORIES_REMOTE);
+	}
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var depth = summarize ? 0 : maxDepth.orElse(Integer.MAX_VALUE);
+		var remotePaths = paths == null || paths.length == 0 ? new String[] { getSftpClient().pwd() } : expandRemoteArray(paths);
+		var grand = new Total();
+		try(var sftpChannels = new SftpChannels(getSshClient(), channels, getSftpClient())) {
+			for(var path : remotePaths) {
+				var root = absolute(path);
+				var total = walk(sftpChannels, root, depth);
+				grand.bytes.addAndGet(total.bytes.get());
+				grand.files.addAndGet(total.files.get());
+			}
+		}
+		if(remotePaths.length > 1) {
+			print(grand, "total");
+		}
+		return 0;
+	}
+
+	/**
+	 * Walk a tree, printing the total of each directory as soon as everything
+	 * below it has been listed, which may be from any of the walking threads.
+	 */
+	private Total walk(SftpChannels sftpChannels, String root, int depth) throws Exception {
+		var totals = new ConcurrentHashMap<String, Total>();
+		var result = new Total();
+		new RemoteWalker(sftpChannels).walk(root, new RemoteWalker.Visitor() {
+			@Override
+			public boolean preVisitDirectory(String path, SftpFile dir, int dirDepth) throws Exception {
+				totals.put(path, new Total());
+				return true;
+			}
+
+			@Override
+			public void visitFile(String path, SftpFile file, int fileDepth) throws Exception {
+				var size = file.attributes().isLink() ? 0 : file.attributes().size().longValue();
+				var parent = totals.get(parent(path));
+				var target = parent == null ? result : parent;
+				target.bytes.addAndGet(size);
+				target.files.incrementAndGet();
+				if(fileDepth == 0 || (all && fileDepth <= depth)) {
+					var t = new Total();
+					t.bytes.set(size);
+					t.files.set(1);
+					print(t, path);
+				}
+			}
+
+			@Override
+			public void postVisitDirectory(String path, int dirDepth) throws Exception {
+				var total = totals.remove(path);
+				var parent = dirDepth == 0 ? result : totals.get(parent(path));
+				if(parent != null) {
+					parent.bytes.addAndGet(total.bytes.get());
+					parent.files.addAndGet(total.files.get());
+				}
+				if(dirDepth <= depth) {
+					print(total, path);
+				}
+			}
+
+			@Override
+			public void failed(String path, Exception exception) throws Exception {
+				synchronized(Du.this) {
+					io().error("Cannot list {0}. {1}", path, exception.getMessage());
+				}
+			}
+		});
+		return result;
+	}
+
+	private synchronized void print(Total total, String path) {
+		var size = humanReadable ? toByteSize(total.bytes.get()) : String.valueOf(total.bytes.get());
+		if(inodes) {
+			io().messageln("{0}", String.format("%12s %10d  %s", size, total.files.get(), path));
+		}
+		else {
+			io().messageln("{0}", String.format("%12s  %s", size, path));
+		}
+	}
+
+	private String absolute(String path) throws Exception {
+		if(!path.startsWith("/")) {
+			var pwd = getSftpClient().pwd();
+			path = pwd.endsWith("/") ? pwd + path : pwd + "/" + path;
+		}
+		while(path.length() > 1 && path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		return path;
+	}
+
+	private static String parent(String path) {
+		var idx = path.lastIndexOf('/');
+		return idx <= 0 ? "/" : path.substring(0, idx);
+	}
+}
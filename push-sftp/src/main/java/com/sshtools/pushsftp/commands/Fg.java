@@ -0,0 +1,53 @@
+package com.sshtools.pushsftp.commands;
+
+import java.util.Optional;
+
+import com.sshtools.pushsftp.BackgroundJobs.Job;
+import com.sshtools.pushsftp.BackgroundJobs.State;
+import com.sshtools.pushsftp.PSFTPInteractive;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "fg", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Show the progress of a background job until it finishes")
+public class Fg extends SftpCommand {
+
+	@Parameters(arity = "0..1", paramLabel = "JOB", description = "the number of the job, or the most recent running job if not given")
+	private Optional<Integer> id;
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var jobs = ((PSFTPInteractive)getRootCommand()).getJobs();
+		Optional<Job> found;
+		if(id.isPresent()) {
+			found = jobs.get(id.get());
+		}
+		else {
+			found = Optional.empty();
+			for(var job : jobs.list()) {
+				if(!job.isDone())
+					found = Optional.of(job);
+			}
+		}
+		if(found.isEmpty()) {
+			io().error("No such job");
+			return 1;
+		}
+
+		var job = found.get();
+		io().messageln("[{0}] {1}", job.id(), job.description());
+		try(var progress = io().progressBuilder().withInterruptable().build()) {
+			while(!job.waitFor(250)) {
+				if(progress.isCancelled()) {
+					job.kill();
+				}
+				else if(job.total() > 0) {
+					report(io(), progress, job.file(), job.bytes(), job.total(), job.fileStarted());
+				}
+			}
+		}
+		io().messageln(Jobs.describe(job));
+		jobs.remove(job);
+		return job.state() == State.DONE ? 0 : 1;
+	}
+}
@@ -0,0 +1,266 @@
+package com.sshtools.pushsftp.commands;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.pushsftp.util.RemoteGlob;
+import com.sshtools.pushsftp.util.RemoteWalker;
+import com.sshtools.pushsftp.util.SftpChannels;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "find", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Search a remote directory tree for files")
+public class Find extends SftpCommand {
+
+	/**
+	 * An entry being tested.
+	 */
+	private final static class Match {
+		private final String path;
+		private final SftpFile file;
+
+		private Match(String path, SftpFile file) {
+			this.path = path;
+			this.file = file;
+		}
+
+		private String name() {
+			var idx = path.lastIndexOf('/');
+			return idx == -1 ? path : path.substring(idx + 1);
+		}
+	}
+
+	@Parameters(arity = "0..", paramLabel = "PATH", description = "paths of directories to search, the current directory if none")
+	private String[] paths;
+
+	@Option(names = { "-n", "--name" }, paramLabel = "GLOB", description = "match file names against a pattern, e.g. '*.log'. May be given more than once to match any of them")
+	private List<String> names = new ArrayList<>();
+
+	@Option(names = { "-i", "--iname" }, paramLabel = "GLOB", description = "as --name, but ignoring case")
+	private List<String> inames = new ArrayList<>();
+
+	@Option(names = { "-p", "--path" }, paramLabel = "GLOB", description = "match whole paths against a pattern, e.g. '/var/log/**/*.gz'")
+	private Optional<String> pathPattern;
+
+	@Option(names = { "-t", "--type" }, paramLabel = "f|d|l", description = "only match regular files (f), directories (d) or symbolic links (l)")
+	private Optional<Character> type;
+
+	@Option(names = { "-s", "--size" }, paramLabel = "[+|-]SIZE", description = "match files larger (+) or smaller (-) than, or exactly, a size, e.g. +100M. Suffixes are K, M and G")
+	private List<String> sizes = new ArrayList<>();
+
+	@Option(names = { "-m", "--mtime" }, paramLabel = "[+|-]DAYS", description = "match files last modified more (+) or less (-) than, or exactly, this many days ago")
+	private List<String> mtimes = new ArrayList<>();
+
+	@Option(names = { "--min-depth" }, paramLabel = "DEPTH", description = "only match at least this many levels below each path")
+	private int minDepth;
+
+	@Option(names = { "-d", "--max-depth" }, paramLabel = "DEPTH", description = "do not descend more than this many levels below each path")
+	private Optional<Integer> maxDepth;
+
+	@Option(names = { "-l", "--long" }, description = "show matches with the long name format")
+	private boolean longnames;
+
+	@Option(names = { "-o", "--output" }, paramLabel = "FILE", description = "write matching paths to a local file, one per line, for use with the --files-from option of pull and rm")
+	private Optional<Path> output;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels used to list directories concurrently", defaultValue = "8")
+	private int channels;
+
+	public Find() {
+		super(FilenameCompletionMode.DIRECTORIES_REMOTE);
+	}
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var predicate = predicate();
+		var remotePaths = paths == null || paths.length == 0 ? new String[] { getSftpClient().pwd() } : expandRemoteArray(paths);
+		var matches = new AtomicLong();
+		var writer = output.isPresent() ? Optional.of(Files.newBufferedWriter(expandLocalSingle(output.get()), StandardCharsets.UTF_8)) : Optional.<BufferedWriter>empty();
+		try(var sftpChannels = new SftpChannels(getSshClient(), channels, getSftpClient())) {
+			for(var path : remotePaths) {
+				new RemoteWalker(sftpChannels, maxDepth.orElse(Integer.MAX_VALUE)).walk(path, new RemoteWalker.Visitor() {
+					@Override
+					public boolean preVisitDirectory(String path, SftpFile dir, int depth) throws Exception {
+						visit(path, dir, depth);
+						return true;
+					}
+
+					@Override
+					public void visitFile(String path, SftpFile file, int depth) throws Exception {
+						visit(path, file, depth);
+					}
+
+					@Override
+					public void failed(String path, Exception exception) throws Exception {
+						synchronized(Find.this) {
+							io().error("Cannot list {0}. {1}", path, exception.getMessage());
+						}
+					}
+
+					private void visit(String path, SftpFile file, int depth) {
+						if(depth < minDepth)
+							return;
+						boolean matched;
+						try {
+							matched = predicate.test(new Match(path, file));
+						}
+						catch(RuntimeException re) {
+							synchronized(Find.this) {
+								io().error("Cannot test {0}. {1}", path, re.getMessage());
+							}
+							return;
+						}
+						if(matched) {
+							matches.incrementAndGet();
+							print(writer, path, file);
+						}
+					}
+				});
+			}
+		}
+		finally {
+			if(writer.isPresent()) {
+				writer.get().close();
+			}
+		}
+		if(writer.isPresent()) {
+			io().messageln("Found {0} matches", matches.get());
+		}
+		return 0;
+	}
+
+	private synchronized void print(Optional<BufferedWriter> writer, String path, SftpFile file) {
+		if(writer.isPresent()) {
+			try {
+				writer.get().write(path);
+				writer.get().newLine();
+			}
+			catch(IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+		else if(longnames) {
+			var longname = SftpClient.formatLongname(file);
+			if(longname.endsWith(file.getFilename()))
+				longname = longname.substring(0, longname.length() - file.getFilename().length()) + path;
+			io().messageln("{0}", longname);
+		}
+		else {
+			io().messageln("{0}", path);
+		}
+	}
+
+	/**
+	 * Build the predicate every entry is tested against, from the cheapest
+	 * tests to the most expensive, all of which must pass.
+	 */
+	private Predicate<Match> predicate() {
+		Predicate<Match> p = m -> true;
+		if(type.isPresent()) {
+			switch(type.get()) {
+			case 'f':
+				p = p.and(m -> m.file.attributes().isFile());
+				break;
+			case 'd':
+				p = p.and(m -> m.file.attributes().isDirectory());
+				break;
+			case 'l':
+				p = p.and(m -> m.file.attributes().isLink());
+				break;
+			default:
+				throw new IllegalArgumentException("Type must be one of 'f', 'd' or 'l'.");
+			}
+		}
+		for(var size : sizes) {
+			p = p.and(compare(size, true, m -> m.file.attributes().size().longValue()));
+		}
+		for(var mtime : mtimes) {
+			var now = System.currentTimeMillis();
+			p = p.and(compare(mtime, false, m -> (now - m.file.attributes().lastModifiedTime().toMillis()) / TimeUnit.DAYS.toMillis(1)));
+		}
+		if(!names.isEmpty() || !inames.isEmpty()) {
+			var matchers = new ArrayList<Predicate<String>>();
+			for(var name : names) {
+				var matcher = RemoteGlob.pattern(name, 0);
+				matchers.add(n -> matcher.matcher(n).matches());
+			}
+			for(var name : inames) {
+				var matcher = RemoteGlob.pattern(name, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+				matchers.add(n -> matcher.matcher(n).matches());
+			}
+			p = p.and(m -> {
+				var name = m.name();
+				return matchers.stream().anyMatch(matcher -> matcher.test(name));
+			});
+		}
+		if(pathPattern.isPresent()) {
+			var matcher = RemoteGlob.pattern(pathPattern.get(), 0);
+			p = p.and(m -> matcher.matcher(m.path).matches());
+		}
+		return p;
+	}
+
+	/**
+	 * Compare a value against an argument such as <code>+100M</code>,
+	 * <code>-7</code> or <code>10</code>.
+	 *
+	 * @param arg argument
+	 * @param sized whether the argument may have a size suffix
+	 * @param value value of an entry
+	 */
+	private static Predicate<Match> compare(String arg, boolean sized, ToLongFunction<Match> value) {
+		var str = arg.trim();
+		var sign = str.isEmpty() ? ' ' : str.charAt(0);
+		if(sign == '+' || sign == '-')
+			str = str.substring(1);
+		var amount = sized ? parseSize(arg, str) : parseNumber(arg, str);
+		switch(sign) {
+		case '+':
+			return m -> value.applyAsLong(m) > amount;
+		case '-':
+			return m -> value.applyAsLong(m) < amount;
+		default:
+			return m -> value.applyAsLong(m) == amount;
+		}
+	}
+
+	private static long parseSize(String arg, String str) {
+		var lower = str.toLowerCase(Locale.ROOT);
+		var multiplier = 1l;
+		if(lower.endsWith("k"))
+			multiplier = 1024;
+		else if(lower.endsWith("m"))
+			multiplier = 1024 * 1024;
+		else if(lower.endsWith("g"))
+			multiplier = 1024 * 1024 * 1024;
+		if(multiplier > 1)
+			lower = lower.substring(0, lower.length() - 1);
+		return parseNumber(arg, lower) * multiplier;
+	}
+
+	private static long parseNumber(String arg, String str) {
+		try {
+			return Long.parseLong(str);
+		}
+		catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException(String.format("Invalid value '%s'.", arg));
+		}
+	}
+}
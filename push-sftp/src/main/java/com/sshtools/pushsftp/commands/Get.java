@@ -1,10 +1,13 @@
 package com.sshtools.pushsftp.commands;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 
-import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.pushsftp.tasks.ScheduledPull.ScheduledPullBuilder;
+import com.sshtools.pushsftp.util.TransferStats;
+import com.sshtools.sequins.Progress.Level;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -19,9 +22,27 @@ public class Get extends SftpCommand implements Callable<Integer> {
 	@Parameters(index = "1", arity = "0..1", description = "Local directory to download to")
 	private Optional<Path> localPath;
 
+	@Option(names = { "-r", "--recursive" }, description = "download the contents of directories, rather than skipping them")
+	boolean recursive;
+
 	@Option(names = { "-T", "--timing" }, description = "time the transfer operation")
 	boolean timing;
 
+	@Option(names = { "-&", "--background" }, description = "run the transfer as a background job, as does ending the command with '&'")
+	boolean background;
+
+	@Option(names = { "--limit" }, paramLabel = "RATE", description = "limit the combined rate of all transfers, e.g. 500K or 10M bytes per second, or 'off'")
+	Optional<String> limit;
+
+	@Option(names = { "--stats-json" }, paramLabel = "FILE", description = "append statistics for each file and chunk to a file as JSON Lines, or write them to standard error if '-'")
+	Optional<String> statsJson;
+
+	@Option(names = { "-c", "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels to download files, and parts of large files, over at once", defaultValue = "4")
+	int channels;
+
+	@Option(names = { "--sync-every" }, paramLabel = "BYTES", description = "force downloaded data to disk each time this many bytes have been written to a file, and when it completes, or 0 to leave it to the operating system", defaultValue = "0")
+	long syncInterval;
+
 	@Option(names = { "-a", "--async-requests" }, description = "the number of async requests to send", defaultValue = "0")
 	int outstandingRequests;
 	
@@ -34,21 +55,34 @@ public class Get extends SftpCommand implements Callable<Integer> {
 	
 	@Override
 	protected Integer onCall() throws Exception {
-		SftpClient sftp = getSftpClient();
-		if(blocksize > 0) {
-			sftp.setBlockSize(blocksize);
-		}
-		if(outstandingRequests > 0) {
-			sftp.setMaxAsyncRequests(outstandingRequests);
+		if(runInBackground(background)) {
+			return 0;
 		}
+		applyLimit(limit);
 		var expandedLocalPath = expandLocalSingleOr(localPath);
-		try(var progress = io().progressBuilder().withRateLimit().withTiming(timing).withInterruptable().build()) {
-			expandRemoteAndDo(remotePath -> {
-				if(expandedLocalPath.isPresent())
-					sftp.get(remotePath, expandedLocalPath.get().toString(), fileTransferProgress(getRootCommand().io(), progress, "Downloading {0}"));
+		try(var stats = TransferStats.open(statsJson, "get", false, getMetrics());
+			var progress = io().progressBuilder().withRateLimit().withTiming(timing).withInterruptable().build()) {
+			var remoteFiles = expandRemoteArray(remotePaths);
+			var bldr = ScheduledPullBuilder.create().
+				withClients((idx) -> getSshClient()).
+				withReleaseClient((ssh) -> {}).
+				withPrimarySftpClient(getSftpClient()).
+				withPaths(remoteFiles).
+				withChannels(channels).
+				withBlocksize(blocksize).
+				withAsyncRequests(outstandingRequests).
+				withSyncInterval(syncInterval).
+				withRecursive(recursive).
+				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
+				withStats(stats).
+				withProgress(batchProgress(progress, "Downloading {0}"));
+			if(expandedLocalPath.isPresent()) {
+				if(Files.isDirectory(expandedLocalPath.get()))
+					bldr.withLocalFolder(expandedLocalPath);
 				else
-					sftp.get(remotePath, fileTransferProgress(getRootCommand().io(), progress, "Downloading {0}"));
-			}, true, remotePaths);
+					bldr.withLocalFile(expandedLocalPath.get());
+			}
+			bldr.build().call();
 		}
 
 		return 0;
@@ -1,14 +1,23 @@
 package com.sshtools.pushsftp.commands;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.Optional;
 
 import com.sshtools.client.SshClient;
 import com.sshtools.common.publickey.SshKeyUtils;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.util.Metrics;
 
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 
 @Command(name = "info", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Display information on the current connection")
 public class Info extends SftpCommand {
+
+	@Option(names = { "-x", "--export" }, paramLabel = "FILE", description = "write all metrics to a file as JSON, or to the terminal if '-'")
+	Optional<String> export;
 	
 	@Override
 	protected Integer onCall() throws Exception {
@@ -54,10 +63,47 @@ public class Info extends SftpCommand {
 			term.messageln("Perform a get or pull operation to generate SFTP read operation statistics");
 		}
 		term.newline();	
+
+		var metrics = getMetrics();
+		term.messageln(term.createSequence().underlineOn().span("Metrics", term.getWidth() / 2).toString());
+		term.newline();
+		term.messageln("Bytes written        : {0}", IOUtils.toByteSize(metrics.counter(Metrics.BYTES_WRITTEN).get()));
+		term.messageln("Bytes read           : {0}", IOUtils.toByteSize(metrics.counter(Metrics.BYTES_READ).get()));
+		term.messageln("Bytes in flight      : {0}", IOUtils.toByteSize(metrics.gauge(Metrics.BYTES_IN_FLIGHT).get()));
+		for(var en : metrics.histograms().entrySet()) {
+			var h = en.getValue();
+			term.messageln(String.format("%-21s: %d, mean %s, p50 %s, p90 %s, p99 %s, max %s", en.getKey(), h.count(), 
+					micros(h.mean()), micros(h.percentile(50)), micros(h.percentile(90)), micros(h.percentile(99)), micros(h.max())));
+		}
+		var counters = metrics.counters();
+		for(var connection = 0 ; counters.containsKey("connection." + connection + ".bytes"); connection++) {
+			var bytes = counters.get("connection." + connection + ".bytes");
+			var millis = Math.max(1, counters.get("connection." + connection + ".millis"));
+			term.messageln(String.format("%-21s: %s, %.1fMB/s", "Connection " + connection, IOUtils.toByteSize(bytes), 
+					(bytes / millis) / 1024D));
+		}
+		term.newline();
+
+		if(export.isPresent()) {
+			var json = metrics.toJson();
+			if(export.get().equals("-"))
+				term.messageln("{0}", json);
+			else
+				Files.writeString(Path.of(export.get()), json + System.lineSeparator());
+		}
 	
 		return 0;
 	}
 
+	private static String micros(long micros) {
+		if(micros < 1000)
+			return micros + "us";
+		else if(micros < 1000000)
+			return String.format("%.1fms", micros / 1000D);
+		else
+			return String.format("%.1fs", micros / 1000000D);
+	}
+
 	private boolean showSFTPStatistic(String message, String value) {
 		String v = System.getProperty(value);
 		if(Objects.isNull(v)) {
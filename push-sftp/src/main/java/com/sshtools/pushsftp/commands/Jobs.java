@@ -0,0 +1,48 @@
+package com.sshtools.pushsftp.commands;
+
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.BackgroundJobs.Job;
+import com.sshtools.pushsftp.BackgroundJobs.State;
+import com.sshtools.pushsftp.PSFTPInteractive;
+
+import picocli.CommandLine.Command;
+
+@Command(name = "jobs", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "List background jobs")
+public class Jobs extends SftpCommand {
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var jobs = ((PSFTPInteractive)getRootCommand()).getJobs();
+		for(var job : jobs.list()) {
+			io().messageln(describe(job));
+			jobs.remove(job);
+		}
+		return 0;
+	}
+
+	static String describe(Job job) {
+		var bldr = new StringBuilder();
+		bldr.append(String.format("[%d] %-8s", job.id(), job.state()));
+		if(job.state() == State.RUNNING) {
+			if(job.total() > 0) {
+				var time = Math.max(1, System.currentTimeMillis() - job.fileStarted());
+				bldr.append(String.format(" %3.0f%% %8s %7.1fMB/s", ((double)job.bytes() / (double)job.total()) * 100, 
+						IOUtils.toByteSize(job.bytes()), (job.bytes() / time) / 1024D));
+			}
+		}
+		else if(job.state() == State.FAILED) {
+			bldr.append(String.format(" (exit %d)", job.exitCode()));
+		}
+		bldr.append(' ');
+		bldr.append(job.description());
+		if(job.state() == State.RUNNING && !job.file().isEmpty()) {
+			bldr.append(" - ");
+			bldr.append(job.file());
+		}
+		else if(job.state() != State.DONE && !job.lastMessage().isEmpty()) {
+			bldr.append(" - ");
+			bldr.append(job.lastMessage());
+		}
+		return bldr.toString();
+	}
+}
@@ -0,0 +1,30 @@
+package com.sshtools.pushsftp.commands;
+
+import com.sshtools.pushsftp.PSFTPInteractive;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "kill", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Stop background jobs")
+public class Kill extends SftpCommand {
+
+	@Parameters(arity = "1..", paramLabel = "JOB", description = "the numbers of the jobs to stop")
+	private int[] ids;
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var jobs = ((PSFTPInteractive)getRootCommand()).getJobs();
+		var result = 0;
+		for(var id : ids) {
+			var job = jobs.get(id);
+			if(job.isEmpty()) {
+				io().error("No such job {0}", id);
+				result = 1;
+			}
+			else if(!job.get().isDone()) {
+				job.get().kill();
+			}
+		}
+		return result;
+	}
+}
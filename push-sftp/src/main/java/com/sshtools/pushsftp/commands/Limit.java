@@ -0,0 +1,22 @@
+package com.sshtools.pushsftp.commands;
+
+import java.util.Optional;
+
+import com.sshtools.pushsftp.util.RateLimiter;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "limit", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Show or change the combined rate limit of all transfers")
+public class Limit extends SftpCommand {
+
+	@Parameters(arity = "0..1", paramLabel = "RATE", description = "the new rate, e.g. 500K or 10M bytes per second, or 'off'")
+	private Optional<String> rate;
+
+	@Override
+	protected Integer onCall() throws Exception {
+		applyLimit(rate);
+		io().messageln("Transfer limit: {0}", RateLimiter.format(getRateLimiter().getRate()));
+		return 0;
+	}
+}
@@ -28,6 +28,7 @@ public class Ln extends SftpCommand {
 			getSftpClient().hardlink(expandedLinkPath, expandedLinkTargetPath);
 		else
 			getSftpClient().symlink(expandedLinkPath, expandedLinkTargetPath);
+		invalidateRemote(expandedLinkPath);
 		return 0;
 	}
 
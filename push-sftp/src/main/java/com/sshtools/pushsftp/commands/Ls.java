@@ -1,20 +1,19 @@
 package com.sshtools.pushsftp.commands;
 
-import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Optional;
-import java.util.TreeSet;
 
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.SftpFile;
-import com.sshtools.common.permissions.PermissionDeniedException;
-import com.sshtools.common.sftp.SftpStatusException;
-import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.Utils;
+import com.sshtools.pushsftp.util.ExternalSort;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -23,12 +22,17 @@ import picocli.CommandLine.Parameters;
 @Command(name = "ls", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "List directory")
 public class Ls extends SftpCommand {
 
+	private final static int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
 	@Option(names = "-l", description = "show files with the long name format")
 	boolean longnames;
 	
 	@Option(names = "-a", description = "show hidden files")
 	boolean showHidden;
 
+	@Option(names = { "-U", "--unsorted" }, description = "print entries as they are read, one per line, without sorting them, for very large directories")
+	boolean unsorted;
+
 	@Parameters(index = "0", arity="0..1", paramLabel="PATH", description = "path of directory to list")
 	Optional<String> path;
 	
@@ -39,59 +43,85 @@ public class Ls extends SftpCommand {
 	@Override
 	protected Integer onCall() throws Exception {
 		
-		if(longnames) {
-			printLongnames();
-		} else {
-			printNames();
+		var out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), OUTPUT_BUFFER_SIZE));
+		try {
+			if(unsorted) {
+				printUnsorted(out);
+			} else if(longnames) {
+				printLongnames(out);
+			} else {
+				printNames(out);
+			}
+		}
+		finally {
+			out.flush();
 		}
 
 		return 0;
 	}
 
-	private void printNames() throws SftpStatusException, SshException, IOException, PermissionDeniedException {
-
-		
-		var results = new TreeSet<String>();
-		int maximumFilenameLength = 0;
-		int columns = getRootCommand().io().getWidth();
-
+	private void printUnsorted(PrintWriter out) throws Exception {
 		var it = lsIterator();
 		while(it.hasNext()) {
 			var file = it.next();
-			var displayName = longnames ? file.getLongname() : file.getFilename();
-			if(Utils.isBlank(displayName) || (displayName.startsWith(".") && !showHidden)) {
+			if(isHidden(file.getFilename())) {
 				continue;
 			}
-			maximumFilenameLength = Math.max(displayName.length(), maximumFilenameLength);
-			results.add(displayName);
+			out.println(longnames ? SftpClient.formatLongname(file) : file.getFilename());
 		}
-		
-		int printingColumns = 1;
-		if(maximumFilenameLength < (columns / 2) && maximumFilenameLength > 0) {
-			printingColumns = columns / maximumFilenameLength;
-		}
-		
-		if(printingColumns > 1) {
-			var format = "%1$-"+ (columns / printingColumns) + "s";
-			var itr = results.iterator();
-			while(itr.hasNext()) {
-				for(int i=0;i<printingColumns;i++) {
-					System.out.print(String.format(format, itr.next()));
-					if(!itr.hasNext()) {
-						break;
-					}
+	}
+
+	private void printNames(PrintWriter out) throws Exception {
+
+		try(var results = new ExternalSort()) {
+			int maximumFilenameLength = 0;
+			int columns = getRootCommand().io().getWidth();
+	
+			var it = lsIterator();
+			while(it.hasNext()) {
+				var displayName = it.next().getFilename();
+				if(isHidden(displayName)) {
+					continue;
 				}
-				System.out.println();
+				maximumFilenameLength = Math.max(displayName.length(), maximumFilenameLength);
+				results.add(displayName, displayName);
 			}
-		} else {
-			for(var result : results) {
-				System.out.println(result);
+			
+			int printingColumns = 1;
+			if(maximumFilenameLength < (columns / 2) && maximumFilenameLength > 0) {
+				printingColumns = columns / maximumFilenameLength;
+			}
+			
+			var itr = results.values();
+			if(printingColumns > 1) {
+				var width = columns / printingColumns;
+				while(itr.hasNext()) {
+					for(int i=0;i<printingColumns;i++) {
+						var name = itr.next();
+						out.print(name);
+						for(int j = name.length(); j < width; j++) {
+							out.print(' ');
+						}
+						if(!itr.hasNext()) {
+							break;
+						}
+					}
+					out.println();
+				}
+			} else {
+				while(itr.hasNext()) {
+					out.println(itr.next());
+				}
 			}
 		}
 	}
 
+	private boolean isHidden(String name) {
+		return Utils.isBlank(name) || (name.startsWith(".") && !showHidden);
+	}
+
 	@SuppressWarnings("unchecked")
-	private Iterator<SftpFile> lsIterator() throws SftpStatusException, SshException, IOException, PermissionDeniedException {
+	private Iterator<SftpFile> lsIterator() throws Exception {
 		var sftp = getSftpClient();
 		if(path.isPresent()) {
 			var expanded = expandRemoteArray(path.get());
@@ -106,33 +136,32 @@ public class Ls extends SftpCommand {
 			}
 		}
 		else
-			return sftp.lsIterator();
+			return getListingCache().iterate(sftp, sftp.pwd());
 	}
 
-	private Iterator<SftpFile> lsPath(String path) throws SftpStatusException, SshException {
-		var resolved = getSftpClient().getSubsystemChannel().getFile(path);
+	private Iterator<SftpFile> lsPath(String path) throws Exception {
+		var resolved = getListingCache().getFile(getSftpClient(), path);
 		if(resolved.attributes().isDirectory())
-			return  getSftpClient().lsIterator(path);
+			return getListingCache().iterate(getSftpClient(), path);
 		else
 			return Arrays.asList(resolved).iterator();
 	}
 
-	private void printLongnames() throws SftpStatusException, SshException, IOException, PermissionDeniedException {
+	private void printLongnames(PrintWriter out) throws Exception {
 
-		var it = lsIterator();
-		var results = new ArrayList<SftpFile>();
-		while(it.hasNext()) {
-			var file = it.next();
-			if(file.getFilename().startsWith(".") && !showHidden) {
-				continue;
+		try(var results = new ExternalSort()) {
+			var it = lsIterator();
+			while(it.hasNext()) {
+				var file = it.next();
+				if(isHidden(file.getFilename())) {
+					continue;
+				}
+				results.add(file.getFilename(), SftpClient.formatLongname(file));
+			}
+			
+			for(var itr = results.values(); itr.hasNext(); ) {
+				out.println(itr.next());
 			}
-			results.add(file);
-		}
-		
-		Collections.sort(results, (o1, o2) -> o1.getFilename().compareTo(o2.getFilename()));
-		
-		for(var result : results) {
-			System.out.println(SftpClient.formatLongname(result));
 		}
 	}
 	
@@ -18,7 +18,9 @@ public class Mkdir extends SftpCommand {
 	@Override
 	protected Integer onCall() throws Exception {
 		SftpClient sftp = getSftpClient();
-		sftp.mkdir(expandRemoteSingle(directory));
+		var expandedPath = expandRemoteSingle(directory);
+		sftp.mkdir(expandedPath);
+		invalidateRemote(expandedPath);
 		return 0;
 	}
 
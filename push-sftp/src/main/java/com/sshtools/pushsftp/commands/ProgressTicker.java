@@ -0,0 +1,139 @@
+package com.sshtools.pushsftp.commands;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.sequins.Progress;
+import com.sshtools.sequins.Sequins;
+
+/**
+ * Draws the progress of transfers at a fixed frame rate from a single
+ * background thread. Transfer threads only update a counter, so they never
+ * wait on each other or on the terminal, however many chunks or files are in
+ * flight. The final frame of a transfer is drawn as soon as it completes, so
+ * it appears before anything the transfer prints next. A sample is only drawn
+ * when it has moved, so one that stalls is left as it is until it moves
+ * again, and is only forgotten once finished or cancelled. Frames are drawn
+ * one at a time, whichever thread draws them.
+ */
+final class ProgressTicker {
+
+	private final static long FRAME_MS = 100;
+
+	private final static Set<Sample> SAMPLES = ConcurrentHashMap.newKeySet();
+	private final static Object DRAW = new Object();
+	private final static ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+		var t = new Thread(r, "ProgressTicker");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		TICKER.scheduleAtFixedRate(ProgressTicker::tick, FRAME_MS, FRAME_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The progress of one transfer, or of a number of transfers counted
+	 * together.
+	 */
+	final static class Sample {
+		private final Sequins terminal;
+		private final Progress progress;
+		private final String name;
+		private final long length;
+		private final long started = System.currentTimeMillis();
+		private final AtomicLong bytes = new AtomicLong();
+		private long drawn = -1;
+
+		private Sample(Sequins terminal, Progress progress, String name, long length) {
+			this.terminal = terminal;
+			this.progress = progress;
+			this.name = name;
+			this.length = length;
+		}
+
+		long bytes() {
+			return bytes.get();
+		}
+
+		/**
+		 * Set the number of bytes transferred so far. Completing the transfer
+		 * draws the final frame straight away.
+		 *
+		 * @param bytesSoFar bytes
+		 */
+		void set(long bytesSoFar) {
+			bytes.set(bytesSoFar);
+			if(bytesSoFar >= length)
+				finish();
+		}
+
+		/**
+		 * Add to the number of bytes transferred so far.
+		 *
+		 * @param count bytes
+		 */
+		void add(long count) {
+			if(bytes.addAndGet(count) >= length)
+				finish();
+		}
+
+		/**
+		 * Stop drawing this sample, drawing its last frame if it has changed.
+		 */
+		void finish() {
+			if(SAMPLES.remove(this))
+				draw();
+		}
+
+		/**
+		 * Stop drawing this sample without drawing it again.
+		 */
+		void cancel() {
+			SAMPLES.remove(this);
+		}
+
+		private void draw() {
+			synchronized(DRAW) {
+				var b = bytes.get();
+				if(b == drawn)
+					return;
+				drawn = b;
+				SftpCommand.report(terminal, progress, name, b, length, started);
+			}
+		}
+	}
+
+	private ProgressTicker() {
+	}
+
+	/**
+	 * Start drawing the progress of a transfer.
+	 *
+	 * @param terminal terminal
+	 * @param progress progress to draw on
+	 * @param name name to show
+	 * @param length total bytes
+	 * @return sample to update
+	 */
+	static Sample start(Sequins terminal, Progress progress, String name, long length) {
+		var sample = new Sample(terminal, progress, name, length);
+		SAMPLES.add(sample);
+		return sample;
+	}
+
+	private static void tick() {
+		for(var sample : SAMPLES) {
+			try {
+				sample.draw();
+			}
+			catch(RuntimeException re) {
+				/* Try again next frame, the ticker must keep running */
+			}
+		}
+	}
+}
@@ -1,13 +1,15 @@
 package com.sshtools.pushsftp.commands;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.Optional;
 
 import com.sshtools.client.sftp.RemoteHash;
-import com.sshtools.client.tasks.PullTask.PullTaskBuilder;
-import com.sshtools.common.ssh.SshException;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.pushsftp.tasks.ScheduledPull.ScheduledPullBuilder;
+import com.sshtools.pushsftp.util.ChunkTuner;
+import com.sshtools.pushsftp.util.Compressibility;
+import com.sshtools.pushsftp.util.TransferStats;
+import com.sshtools.sequins.Progress;
 import com.sshtools.sequins.Progress.Level;
 
 import picocli.CommandLine.Command;
@@ -17,12 +19,15 @@ import picocli.CommandLine.Parameters;
 @Command(name = "pull", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Pull file from remote")
 public class Pull extends SftpCommand {
 
-	@Parameters(arity = "1..", paramLabel = "FILE", description = "one or more files/folders to transfer")
+	@Parameters(arity = "0..", paramLabel = "FILE", description = "one or more files/folders to transfer")
 	String[] files;
 
+	@Option(names = { "--files-from" }, paramLabel = "FILE", description = "also transfer the remote paths listed in a local file, one per line, such as one written by 'find --output'")
+	Optional<Path> filesFrom;
+
 	@Option(names = { "-c",
-			"--chunks" }, paramLabel = "COUNT", description = "the number of concurrent parts (chunks) to transfer")
-	int chunks = 3;
+			"--chunks" }, paramLabel = "COUNT|auto", description = "the number of concurrent parts (chunks) to transfer, or 'auto' to tune this (and multiplexing) from measured throughput")
+	String chunks = "3";
 
 	@Option(names = { "-M", "--multiplex" }, description = "multiplex channels over the same connection for each chunk")
 	boolean multiplex;
@@ -41,6 +46,12 @@ public class Pull extends SftpCommand {
 			"--local-dir" }, paramLabel = "PATH", description = "the directory locally you want to transfer the files to")
 	Optional<Path> localFolder;
 
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels per connection", defaultValue = "1")
+	int channels;
+
+	@Option(names = { "--sync-every" }, paramLabel = "BYTES", description = "force downloaded data to disk each time this many bytes have been written to a file, and when it completes, or 0 to leave it to the operating system", defaultValue = "0")
+	long syncInterval;
+
 	@Option(names = { "-a", "--async-requests" }, description = "the number of async requests to send", defaultValue = "0")
 	int outstandingRequests;
 	
@@ -49,46 +60,83 @@ public class Pull extends SftpCommand {
 	
 	@Option(names = { "-T", "--timing" }, description = "time the transfer operation")
 	boolean timing;
+
+	@Option(names = { "-&", "--background" }, description = "run the transfer as a background job, as does ending the command with '&'")
+	boolean background;
+
+	@Option(names = { "--limit" }, paramLabel = "RATE", description = "limit the combined rate of all transfers, e.g. 500K or 10M bytes per second, or 'off'")
+	Optional<String> limit;
+
+	@Option(names = { "--stats-json" }, paramLabel = "FILE", description = "append statistics for each file and chunk to a file as JSON Lines, or write them to standard error if '-'")
+	Optional<String> statsJson;
 	
 	@Option(names = { "-B", "--verbose" }, description = "verbose progress output")
 	boolean verboseOutput;
 	
+	@Option(names = { "-z", "--compression" }, paramLabel = "auto|on|off", description = "receive files over connections with zlib compression, or 'auto' to only do so for files whose names are not those of compressed formats", defaultValue = "off")
+	Compression compression;
+	
 	public Pull() {
 		super(FilenameCompletionMode.REMOTE);
 	}
 	
 	@Override
 	protected Integer onCall() throws Exception {
+		if(runInBackground(background)) {
+			return 0;
+		}
+		applyLimit(limit);
 
-		try (var progress = io().progressBuilder().withTiming(timing).withRateLimit().build()) {
-			getSshClient().runTask(PullTaskBuilder.create().
-				withClients((idx) -> {
-					if (multiplex || idx == 0)
-						return getSshClient();
-					else {
-						try {
-							return getRootCommand().connect(false, idx < 2);
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						} catch (SshException e) {
-							throw new IllegalStateException(e);
-						}
+		try (var stats = TransferStats.open(statsJson, "pull", false, getMetrics());
+			var progress = io().progressBuilder().withTiming(timing).withRateLimit().build()) {
+			var remoteFiles = expandRemoteArray(withFilesFrom(files, filesFrom));
+			var groups = byCompression(compression, remoteFiles, Compressibility::isCompressible);
+			for(var group : groups.entrySet()) {
+				var groupFiles = group.getValue().toArray(new String[0]);
+				var compress = group.getKey();
+				if(isAutoChunks(chunks)) {
+					var tuner = ChunkTuner.forTarget(getTarget() + "/pull", !multiplex);
+					var measurement = tuner.measure(batchProgress(progress, "Downloading {0}"));
+					var started = System.currentTimeMillis();
+					if(verboseOutput) {
+						progress.message(Level.NORMAL, "Using {0} chunks{1}", tuner.chunks(), tuner.multiplex() ? " (multiplexed)" : "");
+					}
+					scheduledPull(progress, stats, groupFiles, tuner.chunks(), multiplex || tuner.multiplex(), compress, measurement);
+					if(!getRateLimiter().isLimited()) {
+						tuner.record(measurement.bytes(), System.currentTimeMillis() - started);
 					}
-				}).
-				withPrimarySftpClient(getSftpClient()).
-				withPaths(files).
-				withChunks(chunks).
-				withDigest(digest).
-				withBlocksize(blocksize).
-				withAsyncRequests(outstandingRequests).
-				withLocalFolder(expandLocalSingleOr(localFolder)).
-				withIntegrityVerification(verifyIntegrity).
-				withIgnoreIntegrity(ignoreIntegrity).
-				withVerboseOutput(verboseOutput).
-				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
-				withProgress(fileTransferProgress(getRootCommand().io(), progress, "Downloading {0}")).build());
+				}
+				else {
+					scheduledPull(progress, stats, groupFiles, parseChunks(chunks), multiplex, compress, batchProgress(progress, "Downloading {0}"));
+				}
+				releaseChunks();
+			}
+		}
+		finally {
+			releaseChunks();
 		}
 
 		return 0;
 	}
+
+	private void scheduledPull(Progress progress, TransferStats stats, String[] remoteFiles, int chunks, boolean multiplex, boolean compress, FileTransferProgress transferProgress) throws Exception {
+		ScheduledPullBuilder.create().
+			withClients((idx) -> connectChunk(idx, multiplex, compress)).
+			withReleaseClient(this::releaseChunk).
+			withPrimarySftpClient(getSftpClient()).
+			withPaths(remoteFiles).
+			withConnections(chunks).
+			withChannels(channels).
+			withDigest(digest).
+			withBlocksize(blocksize).
+			withAsyncRequests(outstandingRequests).
+			withSyncInterval(syncInterval).
+			withLocalFolder(expandLocalSingleOr(localFolder)).
+			withIntegrityVerification(verifyIntegrity).
+			withIgnoreIntegrity(ignoreIntegrity).
+			withVerboseOutput(verboseOutput).
+			withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
+			withStats(stats).
+			withProgress(transferProgress).build().call();
+	}
 }
@@ -1,13 +1,18 @@
 package com.sshtools.pushsftp.commands;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.Optional;
 
 import com.sshtools.client.sftp.RemoteHash;
+import com.sshtools.client.tasks.FileTransferProgress;
 import com.sshtools.client.tasks.PushTask.PushTaskBuilder;
-import com.sshtools.common.ssh.SshException;
+import com.sshtools.pushsftp.tasks.DeltaPush.DeltaPushBuilder;
+import com.sshtools.pushsftp.tasks.ResumablePush.ResumablePushBuilder;
+import com.sshtools.pushsftp.tasks.SmallFilePush.SmallFilePushBuilder;
+import com.sshtools.pushsftp.util.ChunkTuner;
+import com.sshtools.pushsftp.util.Compressibility;
+import com.sshtools.pushsftp.util.TransferStats;
+import com.sshtools.sequins.Progress;
 import com.sshtools.sequins.Progress.Level;
 
 import picocli.CommandLine.Command;
@@ -21,8 +26,8 @@ public class Push extends SftpCommand {
 	Path[] files;
 
 	@Option(names = { "-c",
-			"--chunks" }, paramLabel = "COUNT", description = "the number of concurrent parts (chunks) to transfer")
-	int chunks = 3;
+			"--chunks" }, paramLabel = "COUNT|auto", description = "the number of concurrent parts (chunks) to transfer, or 'auto' to tune this (and multiplexing) from measured throughput")
+	String chunks = "3";
 
 	@Option(names = { "-M", "--multiplex" }, description = "multiplex channels over the same connection for each chunk")
 	boolean multiplex;
@@ -52,37 +57,117 @@ public class Push extends SftpCommand {
 	
 	@Option(names = { "-T", "--timing" }, description = "time the transfer operation")
 	boolean timing;
+
+	@Option(names = { "-&", "--background" }, description = "run the transfer as a background job, as does ending the command with '&'")
+	boolean background;
+
+	@Option(names = { "--limit" }, paramLabel = "RATE", description = "limit the combined rate of all transfers, e.g. 500K or 10M bytes per second, or 'off'")
+	Optional<String> limit;
+
+	@Option(names = { "--stats-json" }, paramLabel = "FILE", description = "append statistics for each file and chunk to a file as JSON Lines, or write them to standard error if '-'")
+	Optional<String> statsJson;
 	
 	@Option(names = { "-B", "--verbose" }, description = "verbose progress output")
 	boolean verboseOutput;
 	
+	@Option(names = { "--resume" }, description = "keep a local journal of completed chunks so an interrupted push only sends what is missing when run again")
+	boolean resume;
+	
+	@Option(names = { "--delta" }, description = "only send the blocks that differ from the existing remote file, using remote block hashes")
+	boolean delta;
+	
+	@Option(names = { "--delta-block-size" }, paramLabel = "BYTES", description = "the size of blocks compared when using --delta", defaultValue = "1048576")
+	int deltaBlockSize;
+	
+	@Option(names = { "--small-files" }, description = "send whole files concurrently over many SFTP channels instead of in chunks, for trees of many small files")
+	boolean smallFiles;
+	
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels per connection used with --small-files", defaultValue = "8")
+	int channels;
+	
+	@Option(names = { "-z", "--compression" }, paramLabel = "auto|on|off", description = "send files over connections with zlib compression, or 'auto' to only do so for files whose content looks compressible", defaultValue = "off")
+	Compression compression;
+	
 	public Push() {
 		super(FilenameCompletionMode.LOCAL);
 	}
 	
 	@Override
 	protected Integer onCall() throws Exception {
+		if(runInBackground(background)) {
+			return 0;
+		}
+		applyLimit(limit);
+		if((resume ? 1 : 0) + (delta ? 1 : 0) + (smallFiles ? 1 : 0) > 1) {
+			throw new IllegalArgumentException("Only one of --resume, --delta and --small-files may be used.");
+		}
 
-		try (var progress = io().progressBuilder().withTiming(timing).withRateLimit().build()) {
+		try (var stats = TransferStats.open(statsJson, "push", true, getMetrics());
+			var progress = io().progressBuilder().withTiming(timing).withRateLimit().build()) {
 			var localFiles = expandLocalArray(files);
-			getSshClient().runTask(PushTaskBuilder.create().
-				withClients((idx) -> {
-					if (multiplex || idx == 0)
-						return getSshClient();
-					else {
-						try {
-							return getRootCommand().connect(false, idx < 2);
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						} catch (SshException e) {
-							throw new IllegalStateException(e);
-						}
+			if(isAutoChunks(chunks)) {
+				var tuner = ChunkTuner.forTarget(getTarget() + "/push", !multiplex);
+				for(var localFile : localFiles) {
+					var compress = byCompression(compression, new Path[] { localFile }, Compressibility::isCompressible).containsKey(true);
+					var measurement = tuner.measure(transferProgress(progress, stats));
+					var started = System.currentTimeMillis();
+					if(verboseOutput) {
+						progress.message(Level.NORMAL, "Using {0} chunks{1}", tuner.chunks(), tuner.multiplex() ? " (multiplexed)" : "");
 					}
-				}).
+					push(progress, stats, new Path[] { localFile }, tuner.chunks(), multiplex || tuner.multiplex(), compress, measurement);
+					if(!getRateLimiter().isLimited()) {
+						tuner.record(measurement.bytes(), System.currentTimeMillis() - started);
+					}
+					releaseChunks();
+				}
+			}
+			else {
+				for(var group : byCompression(compression, localFiles, Compressibility::isCompressible).entrySet()) {
+					push(progress, stats, group.getValue().toArray(new Path[0]), parseChunks(chunks), multiplex, group.getKey(), transferProgress(progress, stats));
+				}
+			}
+		}
+		finally {
+			releaseChunks();
+			invalidateRemote(expandRemoteSingle(remoteFolder));
+		}
+
+		return 0;
+	}
+
+	private FileTransferProgress transferProgress(Progress progress, TransferStats stats) {
+		/* Small files are sent many at once, so each is recorded by the task */
+		return smallFiles ? batchProgress(progress, "Uploading {0}") : transferProgress(progress, stats, "Uploading {0}");
+	}
+
+	private void push(Progress progress, TransferStats stats, Path[] localFiles, int chunks, boolean multiplex, boolean compress, FileTransferProgress transferProgress) throws Exception {
+		if(smallFiles) {
+			SmallFilePushBuilder.create().
+				withClients((idx) -> connectChunk(idx, multiplex, compress)).
+				withReleaseClient(this::releaseChunk).
+				withPrimarySftpClient(getSftpClient()).
+				withPaths(localFiles).
+				withChunks(chunks).
+				withChannels(channels).
+				withBlocksize(blocksize).
+				withAsyncRequests(outstandingRequests).
+				withRemoteFolder(expandRemoteSingle(remoteFolder)).
+				withIntegrityVerification(verifyIntegrity).
+				withIgnoreIntegrity(ignoreIntegrity).
+				withVerboseOutput(verboseOutput).
+				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
+				withStats(stats).
+				withProgress(transferProgress).build().call();
+		}
+		else if(delta) {
+			DeltaPushBuilder.create().
+				withClients((idx) -> connectChunk(idx, multiplex, compress)).
+				withReleaseClient(this::releaseChunk).
 				withPrimarySftpClient(getSftpClient()).
 				withPaths(localFiles).
 				withChunks(chunks).
 				withDigest(digest).
+				withDeltaBlockSize(deltaBlockSize).
 				withBlocksize(blocksize).
 				withAsyncRequests(outstandingRequests).
 				withRemoteFolder(expandRemoteSingle(remoteFolder)).
@@ -90,10 +175,44 @@ public class Push extends SftpCommand {
 				withIgnoreIntegrity(ignoreIntegrity).
 				withVerboseOutput(verboseOutput).
 				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
-				withProgress(fileTransferProgress(getRootCommand().io(), progress, "Uploading {0}")).build());
+				withStats(stats).
+				withProgress(transferProgress).build().call();
+		}
+		else if(resume) {
+			ResumablePushBuilder.create().
+				withClients((idx) -> connectChunk(idx, multiplex, compress)).
+				withReleaseClient(this::releaseChunk).
+				withPrimarySftpClient(getSftpClient()).
+				withPaths(localFiles).
+				withChunks(chunks).
+				withDigest(digest).
+				withBlocksize(blocksize).
+				withAsyncRequests(outstandingRequests).
+				withRemoteFolder(expandRemoteSingle(remoteFolder)).
+				withTarget(getTarget()).
+				withIntegrityVerification(verifyIntegrity).
+				withIgnoreIntegrity(ignoreIntegrity).
+				withVerboseOutput(verboseOutput).
+				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
+				withStats(stats).
+				withProgress(transferProgress).build().call();
+		}
+		else {
+			getSshClient().runTask(PushTaskBuilder.create().
+				withClients((idx) -> connectChunk(idx, multiplex, compress)).
+				withPrimarySftpClient(getSftpClient()).
+				withPaths(localFiles).
+				withChunks(chunks).
+				withDigest(digest).
+				withBlocksize(blocksize).
+				withAsyncRequests(outstandingRequests).
+				withRemoteFolder(expandRemoteSingle(remoteFolder)).
+				withIntegrityVerification(verifyIntegrity).
+				withIgnoreIntegrity(ignoreIntegrity).
+				withVerboseOutput(verboseOutput).
+				withProgressMessages((fmt, args) -> progress.message(Level.NORMAL, fmt, args)).
+				withProgress(transferProgress).build());
 		}
-
-		return 0;
 	}
 
 }
@@ -4,6 +4,8 @@ import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 
+import com.sshtools.pushsftp.util.TransferStats;
+
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -20,6 +22,15 @@ public class Put extends SftpCommand implements Callable<Integer> {
 	@Option(names = { "-T", "--timing" }, description = "time the transfer operation")
 	boolean timing;
 
+	@Option(names = { "-&", "--background" }, description = "run the transfer as a background job, as does ending the command with '&'")
+	boolean background;
+
+	@Option(names = { "--limit" }, paramLabel = "RATE", description = "limit the combined rate of all transfers, e.g. 500K or 10M bytes per second, or 'off'")
+	Optional<String> limit;
+
+	@Option(names = { "--stats-json" }, paramLabel = "FILE", description = "append statistics for each file and chunk to a file as JSON Lines, or write them to standard error if '-'")
+	Optional<String> statsJson;
+
 	@Option(names = { "-a", "--async-requests" }, description = "the number of async requests to send", defaultValue = "0")
 	int outstandingRequests;
 	
@@ -32,6 +43,10 @@ public class Put extends SftpCommand implements Callable<Integer> {
 	
 	@Override
 	protected Integer onCall() throws Exception {
+		if(runInBackground(background)) {
+			return 0;
+		}
+		applyLimit(limit);
 
 		var sftp = getSftpClient();
 		if(blocksize > 0) {
@@ -43,11 +58,15 @@ public class Put extends SftpCommand implements Callable<Integer> {
 		
 		var target = destination.orElse(sftp.pwd());
 
-		try(var progress = io().progressBuilder().withInterruptable().withTiming(timing).withRateLimit().build()) {
+		try(var stats = TransferStats.open(statsJson, "put", true, getMetrics());
+			var progress = io().progressBuilder().withInterruptable().withTiming(timing).withRateLimit().build()) {
 			expandLocalAndDo((path) -> {
-				sftp.put(path.toString(), target, fileTransferProgress(getRootCommand().io(), progress, "Uploading {0}"));
+				sftp.put(path.toString(), target, transferProgress(progress, stats, "Uploading {0}"));
 			}, true, files);
 		}
+		finally {
+			invalidateRemote(target);
+		}
 		
 		return 0;
 	}
@@ -25,6 +25,7 @@ public class Rename extends SftpCommand {
 		var expandedOldPath = expandRemoteSingle(oldPath);
 		var expandedNewPath = expandRemoteSingle(newPath);
 		getSftpClient().rename(expandedOldPath, expandedNewPath, posix);
+		invalidateRemote(expandedOldPath, expandedNewPath);
 		return 0;
 	}
 
@@ -1,5 +1,9 @@
 package com.sshtools.pushsftp.commands;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Optional;
+
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -7,15 +11,21 @@ import picocli.CommandLine.Parameters;
 @Command(name = "rm", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Remove file")
 public class Rm extends SftpCommand {
 
-	@Parameters(index = "0", arity = "1..", description = "File(s) to remove")
+	@Parameters(index = "0", arity = "0..", description = "File(s) to remove")
 	private String[] files;
 	
+	@Option(names = "--files-from", paramLabel = "FILE", description = "also remove the remote paths listed in a local file, one per line, such as one written by 'find --output'")
+	private Optional<Path> filesFrom;
+	
 	@Option(names = "-f", description = "force deletion of children")
 	private boolean force;
 	
 	@Option(names = "-r", description = "recursively delete directory and all children.")
 	private boolean recursive;
 	
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels to remove files over at once with -r and -f", defaultValue = "6")
+	private int channels;
+	
 	public Rm() {
 		super(FilenameCompletionMode.REMOTE);
 	}
@@ -24,11 +34,32 @@ public class Rm extends SftpCommand {
 	protected Integer onCall() throws Exception {
 		var terminal = io();
 		var sftp = getSftpClient();
+		var trees = new ArrayList<String>();
 		expandRemoteAndDo(p -> {
 			terminal.messageln("Removing {0}", p);
-			sftp.rm(p, force, recursive);
-		}, true, files);
+			if(recursive && force && isTree(p)) {
+				trees.add(p);
+				return;
+			}
+			try {
+				sftp.rm(p, force, recursive);
+			}
+			finally {
+				invalidateRemote(p);
+			}
+		}, true, withFilesFrom(files, filesFrom));
+		if(!trees.isEmpty()) {
+			removeTrees(trees, channels);
+		}
 		return 0;
 	}
 
+	/**
+	 * Whether a path is a directory itself, rather than a link to one, of
+	 * which only the link is removed.
+	 */
+	private boolean isTree(String path) throws Exception {
+		var attrs = getSftpClient().statLink(path);
+		return attrs.isDirectory() && !attrs.isLink();
+	}
 }
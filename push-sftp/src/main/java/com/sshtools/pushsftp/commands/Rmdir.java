@@ -18,6 +18,7 @@ public class Rmdir extends SftpCommand {
 		var expandedPath = expandRemoteSingle(file);
 		io().messageln("Removing dir {0}", expandedPath);
 		getSftpClient().rmdir(expandedPath);
+		invalidateRemote(expandedPath);
 		return 0;
 	}
 
@@ -2,11 +2,17 @@ package com.sshtools.pushsftp.commands;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import com.sshtools.client.SshClient;
@@ -18,8 +24,17 @@ import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.FileUtils;
 import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.BackgroundJobs;
 import com.sshtools.pushsftp.PSFTPCommands;
 import com.sshtools.pushsftp.PSFTPInteractive;
+import com.sshtools.pushsftp.util.ListingCache;
+import com.sshtools.pushsftp.util.Metrics;
+import com.sshtools.pushsftp.util.NameCache;
+import com.sshtools.pushsftp.util.RateLimiter;
+import com.sshtools.pushsftp.util.RemoteGlob;
+import com.sshtools.pushsftp.util.SftpChannels;
+import com.sshtools.pushsftp.util.TransferStats;
+import com.sshtools.pushsftp.util.TreeUpdate;
 import com.sshtools.sequins.Progress;
 import com.sshtools.sequins.Progress.Level;
 import com.sshtools.sequins.ProgressBar;
@@ -32,7 +47,24 @@ public abstract class SftpCommand extends ChildCommand {
 		REMOTE, REMOTE_THEN_LOCAL, LOCAL, LOCAL_THEN_REMOTE, NONE
 	}
 
+	public enum Compression {
+		auto, on, off
+	}
+
+	/**
+	 * The maximum number of SFTP channels used to list directories concurrently
+	 * when expanding remote patterns, including the session's own channel.
+	 */
+	private final static int REMOTE_GLOB_CHANNELS = 4;
+
+	/**
+	 * The number of SFTP channels used to list directories when changing the
+	 * attributes of a whole tree, including the session's own channel.
+	 */
+	private final static int TREE_LIST_CHANNELS = 2;
+
 	private final FilenameCompletionMode mode;
+	private final Map<SshClient, Boolean> borrowed = new LinkedHashMap<>();
 	
 	protected SftpCommand() {
 		this(FilenameCompletionMode.NONE);
@@ -54,6 +86,10 @@ public abstract class SftpCommand extends ChildCommand {
 		void op(Path path) throws Exception;
 	}
 
+	public interface Sampler<T> {
+		boolean sample(T file) throws IOException;
+	}
+
 	protected Sequins io() {
 		return ((PSFTPInteractive)getRootCommand()).io();
 	}
@@ -66,6 +102,95 @@ public abstract class SftpCommand extends ChildCommand {
 		return ((PSFTPInteractive)getRootCommand()).getSshClient();
 	}
 
+	protected ListingCache getListingCache() {
+		return ((PSFTPInteractive)getRootCommand()).getListingCache();
+	}
+
+	protected NameCache getNameCache() {
+		return ((PSFTPInteractive)getRootCommand()).getNameCache();
+	}
+
+	protected Metrics getMetrics() {
+		return ((PSFTPInteractive)getRootCommand()).getMetrics();
+	}
+
+	protected RateLimiter getRateLimiter() {
+		return ((PSFTPInteractive)getRootCommand()).getRateLimiter();
+	}
+
+	/**
+	 * Set the rate of the limiter shared by all transfers, if a command was
+	 * given one. The new rate also applies to transfers already running.
+	 *
+	 * @param limit rate, e.g. <code>500K</code>
+	 */
+	protected void applyLimit(Optional<String> limit) {
+		if(limit.isPresent()) {
+			getRateLimiter().setRate(RateLimiter.parse(limit.get()));
+		}
+	}
+
+	/**
+	 * Remove remote paths, along with their parent directory listings and
+	 * anything below them, from the listing cache. Must be called by commands
+	 * that change the remote file system.
+	 *
+	 * @param paths absolute paths, or paths relative to the remote working directory
+	 * @throws SshException on error
+	 * @throws SftpStatusException on error
+	 */
+	protected void invalidateRemote(String... paths) throws SftpStatusException, SshException {
+		var cache = getListingCache();
+		for(var path : paths) {
+			if(path.startsWith("/"))
+				cache.invalidate(path);
+			else {
+				var pwd = getSftpClient().pwd();
+				cache.invalidate(pwd.endsWith("/") ? pwd + path : pwd + "/" + path);
+			}
+		}
+	}
+
+	/**
+	 * Start this command again as a background job of the interactive shell if
+	 * it was asked to run in the background, either with an option or by ending
+	 * the command line with <code>&amp;</code>. The job runs a new instance of
+	 * the command, with the same arguments less the request to run in the
+	 * background, on its own SFTP channel. Outside the interactive prompt,
+	 * such as in a batch script, nothing would wait for the job, so the
+	 * command runs in the foreground instead.
+	 *
+	 * @param background whether the background option was given
+	 * @return whether a job was started, in which case the command should return
+	 * @throws Exception on error
+	 */
+	protected boolean runInBackground(boolean background) throws Exception {
+		if(BackgroundJobs.current().isPresent() || !((PSFTPInteractive)getRootCommand()).isPrompt())
+			return false;
+
+		var args = new ArrayList<>(getSpec().commandLine().getParseResult().originalArgs());
+		var trailing = false;
+		if(!args.isEmpty()) {
+			var last = args.get(args.size() - 1);
+			if(last.equals("&")) {
+				args.remove(args.size() - 1);
+				trailing = true;
+			}
+			else if(last.endsWith("&") && !last.endsWith("&&")) {
+				args.set(args.size() - 1, last.substring(0, last.length() - 1));
+				trailing = true;
+			}
+		}
+		if(!background && !trailing)
+			return false;
+
+		args.removeIf(a -> a.equals("-&") || a.equals("--background"));
+		args.add(0, getSpec().name());
+		var job = ((PSFTPInteractive)getRootCommand()).getJobs().submit(args);
+		io().messageln("[{0}] {1}", job.id(), job.description());
+		return true;
+	}
+
 	protected PSFTPCommands getInteractiveCommand() {
 		return (PSFTPCommands)getSpec().parent().userObject();
 	}
@@ -82,6 +207,133 @@ public abstract class SftpCommand extends ChildCommand {
 		return getRootCommand().getPort();
 	}
 
+	protected String getTarget() {
+		return getUsername() + "@" + getHost() + ":" + getPort();
+	}
+
+	protected static boolean isAutoChunks(String chunks) {
+		return chunks.equalsIgnoreCase("auto");
+	}
+
+	protected static int parseChunks(String chunks) {
+		try {
+			return Integer.parseInt(chunks);
+		}
+		catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException("Chunks must be a number or 'auto'.");
+		}
+	}
+
+	protected SshClient connectChunk(int idx, boolean multiplex) {
+		return connectChunk(idx, multiplex, false);
+	}
+
+	/**
+	 * Get the connection for a chunk of a transfer. Compressed transfers take
+	 * every chunk, including the first, from a pool of compressed connections,
+	 * unless multiplexed, when they all share the session's connection as it
+	 * was negotiated. If a compressed connection cannot be made, this and
+	 * every later transfer of the session carries on uncompressed.
+	 *
+	 * @param idx chunk index
+	 * @param multiplex multiplex
+	 * @param compressed whether to use a compressed connection
+	 * @return connection
+	 */
+	protected SshClient connectChunk(int idx, boolean multiplex, boolean compressed) {
+		if (multiplex)
+			return getSshClient();
+		var root = (PSFTPInteractive)getRootCommand();
+		if(compressed && root.isCompressionAvailable()) {
+			try {
+				return borrow(root, true);
+			} catch (IOException | SshException | RuntimeException e) {
+				if(root.compressionFailed()) {
+					io().error("Transferring without compression. {0}", e.getMessage());
+				}
+			}
+		}
+		if(idx == 0)
+			return getSshClient();
+		try {
+			return borrow(root, false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (SshException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private SshClient borrow(PSFTPInteractive root, boolean compressed) throws IOException, SshException {
+		var client = root.getConnectionPool(compressed).borrow();
+		synchronized(borrowed) {
+			borrowed.put(client, compressed);
+		}
+		return client;
+	}
+
+	protected void releaseChunk(SshClient client) {
+		Boolean compressed;
+		synchronized(borrowed) {
+			compressed = borrowed.remove(client);
+		}
+		if(compressed != null)
+			((PSFTPInteractive)getRootCommand()).getConnectionPool(compressed).release(client);
+	}
+
+	protected void releaseChunks() {
+		Map<SshClient, Boolean> l;
+		synchronized(borrowed) {
+			l = new LinkedHashMap<>(borrowed);
+			borrowed.clear();
+		}
+		var root = (PSFTPInteractive)getRootCommand();
+		l.forEach((client, compressed) -> root.getConnectionPool(compressed).release(client));
+	}
+
+	/**
+	 * Split files into those that should be sent over compressed connections
+	 * and those that should not, sampling their content if the mode is
+	 * <code>auto</code>. Files that cannot be sampled are not compressed. Only
+	 * groups that have files are returned, compressed files first.
+	 *
+	 * @param <T> type of file
+	 * @param compression mode
+	 * @param files files
+	 * @param sampler whether a file is worth compressing
+	 * @return files keyed by whether to compress them
+	 */
+	protected <T> Map<Boolean, List<T>> byCompression(Compression compression, T[] files, Sampler<T> sampler) {
+		var groups = new LinkedHashMap<Boolean, List<T>>();
+		for(var file : files) {
+			boolean compress;
+			switch(compression) {
+			case on:
+				compress = true;
+				break;
+			case off:
+				compress = false;
+				break;
+			default:
+				try {
+					compress = sampler.sample(file);
+				}
+				catch(IOException ioe) {
+					compress = false;
+				}
+				getMetrics().counter(compress ? "compression.compressed" : "compression.uncompressed").increment();
+				break;
+			}
+			groups.computeIfAbsent(compress, k -> new ArrayList<>()).add(file);
+		}
+		var sorted = new LinkedHashMap<Boolean, List<T>>();
+		if(groups.containsKey(true))
+			sorted.put(true, groups.get(true));
+		if(groups.containsKey(false))
+			sorted.put(false, groups.get(false));
+		return sorted;
+	}
+
 	protected Path expandLocalSingle(Optional<Path> path) throws IOException {
 		return expandLocalSingleOr(path).orElseGet(() -> {
 			PSFTPInteractive cmd = getInteractiveCommand().rootCommand();
@@ -153,11 +405,9 @@ public abstract class SftpCommand extends ChildCommand {
 	
 	protected String[] expandRemoteArray(String... paths)  throws SshException, SftpStatusException, IOException, PermissionDeniedException {
 		var l = new ArrayList<String>();
-		for(var path : paths) {
-			expandRemoteAndDo((fp) -> {
-				l.add(fp);
-			}, true, path);
-		}
+		expandRemoteAndDo((fp) -> {
+			l.add(fp);
+		}, true, paths);
 		return l.toArray(new String[0]);
 	}
 
@@ -236,86 +486,166 @@ public abstract class SftpCommand extends ChildCommand {
 		}
 	}
 
-	protected void expandRemoteAndDo(FileOp op, boolean recurse, String... paths) throws SshException, SftpStatusException, IOException, PermissionDeniedException  {
-
-		for(var path : paths) {
-			
-			path = expandSpecialRemotePath(path);
-			path = Path.of(path).normalize().toString();
-			
-			if(path.toString().equals("..")) {
-				var parentFile = getSftpClient().getCurrentWorkingDirectory().getParentFile();
-				var parentPath = parentFile == null ? null : parentFile.getAbsolutePath();
-				path = parentPath == null ? "/" : parentPath;
+	/**
+	 * Add the remote paths listed in a local file, one per line, such as one
+	 * written by <code>find --output</code>, to any given as arguments. Listed
+	 * paths have the characters used in patterns escaped, so they are only
+	 * ever matched as they are.
+	 *
+	 * @param paths paths given as arguments, may be <code>null</code>
+	 * @param filesFrom local file listing more paths
+	 * @return all paths
+	 * @throws IOException if the file cannot be read, or there are no paths at all
+	 */
+	protected String[] withFilesFrom(String[] paths, Optional<Path> filesFrom) throws IOException {
+		var l = new ArrayList<String>();
+		if(paths != null)
+			l.addAll(Arrays.asList(paths));
+		if(filesFrom.isPresent()) {
+			try(var lines = Files.lines(expandLocalSingle(filesFrom.get()), StandardCharsets.UTF_8)) {
+				lines.filter(line -> !line.isBlank()).map(SftpCommand::escapePattern).forEach(l::add);
 			}
+		}
+		if(l.isEmpty())
+			throw new IllegalArgumentException("No paths given.");
+		return l.toArray(new String[0]);
+	}
 
-			var absolute = path.startsWith("/");
-			var root = absolute ? "/" : getSftpClient().pwd();
-			var resolved = root;
-			var pathParts = ( path.startsWith("/") ? path.substring(1) : path ).split("/");
-			var pathCount = pathParts.length;
-			
-			for(int i = 0 ; i < pathCount; i++) {
-				var pathPart = pathParts[i];
-				var matches = 0;
-				var matcher = FileSystems.getDefault().getPathMatcher("glob:" + pathPart);
+	private static String escapePattern(String path) {
+		var b = new StringBuilder(path.length());
+		for(var c : path.toCharArray()) {
+			if(c == '*' || c == '?' || c == '[' || c == ']' || c == '{' || c == '}' || c == '\\')
+				b.append('\\');
+			b.append(c);
+		}
+		return b.toString();
+	}
+
+	protected void expandRemoteAndDo(FileOp op, boolean recurse, String... paths) throws SshException, SftpStatusException, IOException, PermissionDeniedException  {
+
+		try(var glob = new RemoteGlob(new SftpChannels(getSshClient(), REMOTE_GLOB_CHANNELS, getSftpClient()), getListingCache())) {
+			for(var path : paths) {
 				
-				for(var it =  getSftpClient().lsIterator(resolved); it.hasNext(); ) {
-					var pathPartPath = it.next();
-					var fullPath = resolved;
-					var filename = pathPartPath.getFilename();
-					if(filename.equals(".") || filename.equals("..")) {
-						continue;
-					}
-					if(matcher.matches(Path.of(filename))) {
-						fullPath += "/" + filename;
-						matches++;
-						if(i == pathCount -1) {
-							try {
-								op.op(fullPath);
-							} catch(EOFException ee) {
-								return;
-							} catch (Exception e) {
-								if(e instanceof SftpStatusException)
-									throw (SftpStatusException)e;
-								else if(e instanceof SshException)
-									throw (SshException)e;
-								else
-									throw new SshException(e);
-							}
-						}
-					}
-				}
+				path = expandSpecialRemotePath(path);
+				path = Path.of(path).normalize().toString();
 				
-				if(!recurse || matches == 0)
-					break;
+				if(path.toString().equals("..")) {
+					var parentFile = getSftpClient().getCurrentWorkingDirectory().getParentFile();
+					var parentPath = parentFile == null ? null : parentFile.getAbsolutePath();
+					path = parentPath == null ? "/" : parentPath;
+				}
+	
+				var absolute = path.startsWith("/");
+				var root = absolute ? "/" : getSftpClient().pwd();
+				var pathParts = ( path.startsWith("/") ? path.substring(1) : path ).split("/");
 				
-				resolved = resolved + "/" + pathPart;
+				for(var fullPath : glob.expand(root, pathParts, recurse)) {
+					try {
+						op.op(fullPath);
+					} catch(EOFException ee) {
+						return;
+					} catch (Exception e) {
+						if(e instanceof SftpStatusException)
+							throw (SftpStatusException)e;
+						else if(e instanceof SshException)
+							throw (SshException)e;
+						else
+							throw new SshException(e);
+					}
+				}
 			}
 		}
 	}
 
-	protected int getUID(String username) throws IOException {
+	/**
+	 * Change something about the remote files matching a pattern, such as
+	 * their permissions or owner. If <code>recursive</code>, directories are
+	 * changed along with everything below them, with changes made over a
+	 * number of channels at once. Failures do not stop the others, and are
+	 * reported together once everything else has been changed.
+	 *
+	 * @param path path or pattern
+	 * @param recursive whether to change everything below directories
+	 * @param channels number of channels to make changes over when recursive
+	 * @param op change to make
+	 * @throws Exception on error, or if any change failed
+	 */
+	protected void changeAndDo(String path, boolean recursive, int channels, SftpChannels.SftpOp<String> op) throws Exception {
+		changeAndDo(path, recursive, channels, TreeUpdate.Order.DIRECTORIES_LAST, op);
+	}
 
-		SshClient ssh = getSshClient();
-		try {
-			return Integer.parseInt(ssh.executeCommand(String.format("id -u %s", username)));
-		} catch (NumberFormatException e) {
-			throw new IOException("Could not determine uid from username");
+	protected void changeAndDo(String path, boolean recursive, int channels, TreeUpdate.Order order, SftpChannels.SftpOp<String> op) throws Exception {
+		if(!recursive) {
+			expandRemoteAndDo((fp) -> {
+				op.op(getSftpClient(), fp);
+				invalidateRemote(fp);
+			}, false, path);
+			return;
+		}
+
+		var roots = new ArrayList<String>();
+		expandRemoteAndDo(roots::add, false, path);
+		try(var listing = new SftpChannels(getSshClient(), TREE_LIST_CHANNELS, getSftpClient());
+			var updating = new SftpChannels(getSshClient(), channels)) {
+			var update = new TreeUpdate(listing, updating);
+			for(var root : roots) {
+				try {
+					update.apply(root, op, order);
+				}
+				finally {
+					invalidateRemote(root);
+				}
+			}
+			checkFailures(update, "changes");
 		}
 	}
 
-	protected int getGID(String groupname) throws IOException {
+	/**
+	 * Remove paths and, when they are directories, everything below them.
+	 * Files are removed over several channels at once while the tree is still
+	 * being listed, then directories bottom up once they are empty.
+	 *
+	 * @param roots paths to remove
+	 * @param channels number of channels to remove over
+	 * @throws Exception on error, or if anything could not be removed
+	 */
+	protected void removeTrees(List<String> roots, int channels) throws Exception {
+		try(var listing = new SftpChannels(getSshClient(), TREE_LIST_CHANNELS, getSftpClient());
+			var removing = new SftpChannels(getSshClient(), channels)) {
+			var update = new TreeUpdate(listing, removing);
+			for(var root : roots) {
+				try {
+					update.apply(root,
+						(sftp, fp) -> sftp.getSubsystemChannel().removeFile(fp),
+						(sftp, fp) -> sftp.getSubsystemChannel().removeDirectory(fp),
+						true);
+				}
+				finally {
+					invalidateRemote(root);
+				}
+			}
+			checkFailures(update, "removals");
+		}
+	}
 
-		SshClient ssh = getSshClient();
-		try {
-			return Integer.parseInt(ssh.executeCommand(String.format("id -u %s", groupname)));
-		} catch (NumberFormatException e) {
-			throw new IOException("Could not determine uid from username");
+	private void checkFailures(TreeUpdate update, String what) throws IOException {
+		if(update.failed() > 0) {
+			for(var error : update.errors()) {
+				io().error("{0}", error);
+			}
+			throw new IOException(String.format("%d of %d %s failed.", update.failed(), update.failed() + update.applied(), what));
 		}
 	}
 
-	public static synchronized boolean report(Sequins terminal, Progress progress, String name, long totalSoFar, long length, long started) {
+	protected int getUID(String username) throws IOException {
+		return getNameCache().uid(getSshClient(), getSftpClient(), username);
+	}
+
+	protected int getGID(String groupname) throws IOException {
+		return getNameCache().gid(getSshClient(), getSftpClient(), groupname);
+	}
+
+	public static boolean report(Sequins terminal, Progress progress, String name, long totalSoFar, long length, long started) {
 
 		boolean isDone = false;
 		if(totalSoFar > 0) {
@@ -329,7 +659,7 @@ public abstract class SftpCommand extends ChildCommand {
 
 			var humanBytes = IOUtils.toByteSize(totalSoFar);
 
-			var time = (System.currentTimeMillis() - started);
+			var time = Math.max(1, System.currentTimeMillis() - started);
 
 			var megabytesPerSecond = (totalSoFar / time) / 1024D;
 			var transferRate = String.format("%.1fMB/s", megabytesPerSecond);
@@ -380,18 +710,48 @@ public abstract class SftpCommand extends ChildCommand {
 	}
 	
 	
+	/**
+	 * Get the progress for a transfer made by this command, drawn on the
+	 * terminal, held to the session's rate limit and recorded in statistics.
+	 *
+	 * @param progress progress to draw on
+	 * @param stats statistics
+	 * @param messagePattern message shown when each file starts
+	 * @return progress
+	 */
+	protected FileTransferProgress transferProgress(Progress progress, TransferStats stats, String messagePattern) {
+		return getRateLimiter().limit(stats.track(fileTransferProgress(io(), progress, messagePattern)));
+	}
+
+	/**
+	 * Get the progress for a task that transfers several files at once and
+	 * reports their combined progress, recording each file in the statistics
+	 * itself.
+	 *
+	 * @param progress progress
+	 * @param messagePattern message shown when the transfer starts
+	 * @return progress
+	 */
+	protected FileTransferProgress batchProgress(Progress progress, String messagePattern) {
+		return getRateLimiter().limit(fileTransferProgress(io(), progress, messagePattern));
+	}
+
 	public static FileTransferProgress fileTransferProgress(Sequins terminal, Progress progress, String messagePattern) {
+		var job = BackgroundJobs.current();
+		if(job.isPresent()) {
+			return job.get();
+		}
 		return new FileTransferProgress() {
-			private long bytesTotal;
-			private long started;
-			private String file;
+			private volatile ProgressTicker.Sample sample;
 
 			@Override
 			public void started(long bytesTotal, String file) {
-				this.started = System.currentTimeMillis();
-				this.bytesTotal = bytesTotal;
-				this.file = FileUtils.getFilename(file);
-				progress.message(Level.NORMAL, messagePattern, this.file);
+				var previous = sample;
+				if(previous != null)
+					previous.cancel();
+				var name = FileUtils.getFilename(file);
+				progress.message(Level.NORMAL, messagePattern, name);
+				sample = ProgressTicker.start(terminal, progress, name, bytesTotal);
 			}
 
 			@Override
@@ -401,7 +761,16 @@ public abstract class SftpCommand extends ChildCommand {
 
 			@Override
 			public void progressed(long bytesSoFar) {
-				report(terminal, progress, file, bytesSoFar, bytesTotal, started);
+				var current = sample;
+				if(current != null)
+					current.set(bytesSoFar);
+			}
+
+			@Override
+			public void completed() {
+				var current = sample;
+				if(current != null)
+					current.finish();
 			}
 		};
 	}
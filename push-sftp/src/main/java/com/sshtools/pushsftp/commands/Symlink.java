@@ -21,6 +21,7 @@ public class Symlink extends SftpCommand {
 		var expandedLinkPath = expandRemoteSingle(link);
 		var expandedLinkTargetPath = expandRemoteSingle(linkTarget);
 			getSftpClient().symlink(expandedLinkPath, expandedLinkTargetPath);
+		invalidateRemote(expandedLinkPath);
 		return 0;
 	}
 
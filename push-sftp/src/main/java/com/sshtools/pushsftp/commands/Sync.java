@@ -0,0 +1,465 @@
+package com.sshtools.pushsftp.commands;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.RemoteHash;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.util.Digests;
+import com.sshtools.pushsftp.util.RemoteWalker;
+import com.sshtools.pushsftp.util.SftpChannels;
+import com.sshtools.pushsftp.util.SyncState;
+import com.sshtools.sequins.Progress;
+import com.sshtools.sequins.Progress.Level;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "sync", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Synchronise a local directory with a remote directory")
+public class Sync extends SftpCommand {
+
+	public enum Direction {
+		push, pull, both
+	}
+
+	public enum Conflict {
+		skip, local, remote, newer
+	}
+
+	private enum Action {
+		NONE, PUSH, PULL, COMPARE, CONFLICT
+	}
+
+	/**
+	 * Files whose modification times differ by no more than this are considered
+	 * unchanged, as not all file systems store times with millisecond precision.
+	 */
+	private final static long MTIME_TOLERANCE = 1000;
+
+	private final static class Stat {
+		private final long size;
+		private final long modified;
+
+		private Stat(long size, long modified) {
+			this.size = size;
+			this.modified = modified;
+		}
+
+		private boolean same(long size, long modified) {
+			return this.size == size && Math.abs(this.modified - modified) <= MTIME_TOLERANCE;
+		}
+	}
+
+	private final static class Item {
+		private final String path;
+		private final Stat local;
+		private final Stat remote;
+		private Action action;
+		private boolean localChanged;
+		private boolean bothChanged;
+
+		private Item(String path, Stat local, Stat remote, Action action) {
+			this.path = path;
+			this.local = local;
+			this.remote = remote;
+			this.action = action;
+		}
+	}
+
+	@Parameters(index = "0", paramLabel = "LOCAL", description = "Local directory")
+	Path localPath;
+
+	@Parameters(index = "1", arity = "0..1", paramLabel = "REMOTE", description = "Remote directory, defaults to the current remote directory")
+	Optional<String> remotePath;
+
+	@Option(names = { "-D", "--direction" }, paramLabel = "push|pull|both", description = "which way to transfer changes", defaultValue = "both")
+	Direction direction;
+
+	@Option(names = { "-H", "--hash" }, description = "compare the content of files that are the same size using remote hashes, rather than trusting modification times")
+	boolean hash;
+
+	@Option(names = { "-d", "--digest" }, paramLabel = "md5|sha1|sha256|sha512", description = "The digest to use with --hash")
+	RemoteHash digest = RemoteHash.md5;
+
+	@Option(names = { "-C", "--on-conflict" }, paramLabel = "skip|local|remote|newer", description = "what to do when a file has changed on both sides", defaultValue = "skip")
+	Conflict onConflict;
+
+	@Option(names = { "-n", "--dry-run" }, description = "show what would be transferred without transferring anything")
+	boolean dryRun;
+
+	@Option(names = { "--channels" }, paramLabel = "COUNT", description = "the number of SFTP channels used to list and transfer concurrently", defaultValue = "4")
+	int channels;
+
+	@Option(names = { "-T", "--timing" }, description = "time the transfer operation")
+	boolean timing;
+
+	public Sync() {
+		super(FilenameCompletionMode.LOCAL_THEN_REMOTE);
+	}
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var local = expandLocalSingle(localPath).toAbsolutePath().normalize();
+		if(!Files.isDirectory(local))
+			throw new IllegalArgumentException(local + " is not a directory.");
+		var remote = expandRemoteSingle(remotePath);
+
+		var state = SyncState.load(SyncState.DEFAULT_DIRECTORY, getTarget(), local, remote);
+		var localDirs = new TreeSet<String>();
+		var localFiles = scanLocal(local, localDirs);
+
+		try(var sftpChannels = new SftpChannels(getSshClient(), channels);
+			var progress = io().progressBuilder().withRateLimit().withTiming(timing).withInterruptable().build()) {
+
+			var remoteDirs = new ConcurrentSkipListSet<String>();
+			var remoteFiles = scanRemote(sftpChannels, remote, remoteDirs);
+
+			var items = plan(localFiles, remoteFiles, state);
+			if(hash) {
+				compare(sftpChannels, local, remote, items);
+			}
+			resolveConflicts(items);
+
+			var pushes = new ArrayList<Item>();
+			var pulls = new ArrayList<Item>();
+			var conflicts = 0;
+			for(var item : items) {
+				if(item.action == Action.PUSH && direction != Direction.pull)
+					pushes.add(item);
+				else if(item.action == Action.PULL && direction != Direction.push)
+					pulls.add(item);
+				else if(item.action == Action.CONFLICT) {
+					conflicts++;
+					progress.message(Level.NORMAL, "Conflict, {0} changed on both sides, skipped", item.path);
+				}
+				else if(item.action == Action.NONE && item.local != null && item.remote != null && !dryRun) {
+					state.put(item.path, new SyncState.Entry(item.local.size, item.local.modified, item.remote.size, item.remote.modified));
+				}
+			}
+
+			if(dryRun) {
+				for(var item : pushes)
+					io().messageln("push {0}", item.path);
+				for(var item : pulls)
+					io().messageln("pull {0}", item.path);
+				io().messageln(String.format("%d to push, %d to pull, %d conflicts", pushes.size(), pulls.size(), conflicts));
+				return conflicts > 0 ? 1 : 0;
+			}
+
+			createDirectories(local, remote, pushes, pulls, localDirs, remoteDirs);
+
+			var total = pushes.stream().mapToLong(i -> i.local.size).sum() + pulls.stream().mapToLong(i -> i.remote.size).sum();
+			var sample = ProgressTicker.start(io(), progress, (pushes.size() + pulls.size()) + " files", total);
+			var failed = new AtomicLong();
+
+			var transfers = new ArrayList<Item>(pushes);
+			transfers.addAll(pulls);
+			try {
+				sftpChannels.forEach(transfers, (sftp, item) -> {
+					var remoteFile = join(remote, item.path);
+					var localFile = local.resolve(item.path);
+					if(item.action == Action.PUSH) {
+						try(var in = new CountingInputStream(Files.newInputStream(localFile), progress, sample)) {
+							put(sftp, in, remoteFile);
+						}
+						var attrs = sftp.stat(remoteFile);
+						state.put(item.path, new SyncState.Entry(item.local.size, item.local.modified,
+								attrs.size().longValue(), attrs.lastModifiedTime().toMillis()));
+					}
+					else {
+						var tmp = localFile.resolveSibling(localFile.getFileName() + ".sync-tmp");
+						try(var out = new CountingOutputStream(Files.newOutputStream(tmp), progress, sample)) {
+							sftp.get(remoteFile, out);
+						}
+						Files.setLastModifiedTime(tmp, FileTime.fromMillis(item.remote.modified));
+						Files.move(tmp, localFile, StandardCopyOption.REPLACE_EXISTING);
+						state.put(item.path, new SyncState.Entry(Files.size(localFile), Files.getLastModifiedTime(localFile).toMillis(),
+								item.remote.size, item.remote.modified));
+					}
+				}, (item, e) -> {
+					failed.incrementAndGet();
+					progress.message(Level.NORMAL, "Failed to {0} {1}. {2}", item.action == Action.PUSH ? "push" : "pull", item.path, e.getMessage());
+				});
+			}
+			finally {
+				sample.finish();
+				state.save();
+				invalidateRemote(remote);
+			}
+
+			progress.message(Level.NORMAL, "Pushed {0}, pulled {1} ({2}), {3} conflicts, {4} failed", pushes.size(), pulls.size(),
+					IOUtils.toByteSize(sample.bytes()), conflicts, failed.get());
+			return failed.get() > 0 || conflicts > 0 ? 1 : 0;
+		}
+	}
+
+	private Map<String, Stat> scanLocal(Path local, Set<String> dirs) throws IOException {
+		var files = new TreeMap<String, Stat>();
+		try(var stream = Files.walk(local)) {
+			for(var it = stream.iterator(); it.hasNext(); ) {
+				var path = it.next();
+				if(path.equals(local))
+					continue;
+				var rel = relativize(local, path);
+				if(Files.isDirectory(path))
+					dirs.add(rel);
+				else if(Files.isRegularFile(path) && !rel.endsWith(".sync-tmp"))
+					files.put(rel, new Stat(Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+			}
+		}
+		return files;
+	}
+
+	private Map<String, Stat> scanRemote(SftpChannels sftpChannels, String remote, Set<String> dirs) throws IOException {
+		var files = new ConcurrentHashMap<String, Stat>();
+		var prefix = remote.endsWith("/") ? remote.length() : remote.length() + 1;
+		new RemoteWalker(sftpChannels).walk(remote, new RemoteWalker.Visitor() {
+			@Override
+			public boolean preVisitDirectory(String path, SftpFile dir, int depth) throws Exception {
+				if(depth > 0)
+					dirs.add(path.substring(prefix));
+				return true;
+			}
+
+			@Override
+			public void visitFile(String path, SftpFile file, int depth) throws Exception {
+				var attrs = file.attributes();
+				if(depth > 0 && attrs.isFile() && !path.endsWith(".sync-tmp"))
+					files.put(path.substring(prefix), new Stat(attrs.size().longValue(), attrs.lastModifiedTime().toMillis()));
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Decide what to do with each file by comparing both sides with the state
+	 * recorded at the end of the last sync. Files are never deleted, a file
+	 * missing from one side is always copied from the other.
+	 */
+	private List<Item> plan(Map<String, Stat> localFiles, Map<String, Stat> remoteFiles, SyncState state) {
+		var paths = new TreeSet<String>(localFiles.keySet());
+		paths.addAll(remoteFiles.keySet());
+
+		var items = new ArrayList<Item>(paths.size());
+		for(var path : paths) {
+			var l = localFiles.get(path);
+			var r = remoteFiles.get(path);
+			if(r == null) {
+				items.add(new Item(path, l, r, Action.PUSH));
+				continue;
+			}
+			else if(l == null) {
+				items.add(new Item(path, l, r, Action.PULL));
+				continue;
+			}
+
+			var base = state.get(path);
+			var localChanged = base.map(b -> !l.same(b.localSize(), b.localModified())).orElse(true);
+			var remoteChanged = base.map(b -> !r.same(b.remoteSize(), b.remoteModified())).orElse(true);
+
+			Item item;
+			if(!localChanged && !remoteChanged)
+				item = new Item(path, l, r, Action.NONE);
+			else if(l.size == r.size && hash)
+				item = new Item(path, l, r, Action.COMPARE);
+			else if(localChanged && remoteChanged)
+				item = new Item(path, l, r, l.same(r.size, r.modified) ? Action.NONE : Action.CONFLICT);
+			else
+				item = new Item(path, l, r, localChanged ? Action.PUSH : Action.PULL);
+			item.localChanged = localChanged;
+			item.bothChanged = localChanged && remoteChanged;
+			items.add(item);
+		}
+		return items;
+	}
+
+	/**
+	 * Compare the content of files of the same size, so files that have only
+	 * been touched are not transferred.
+	 */
+	private void compare(SftpChannels sftpChannels, Path local, String remote, List<Item> items) throws IOException {
+		var compare = items.stream().filter(i -> i.action == Action.COMPARE).toList();
+		sftpChannels.forEach(compare, (sftp, item) -> {
+			var same = item.local.size == 0;
+			if(!same) {
+				var md = Digests.create(digest);
+				try(var in = new DigestInputStream(Files.newInputStream(local.resolve(item.path)), md)) {
+					in.transferTo(OutputStream.nullOutputStream());
+				}
+				var remoteDigest = Digests.hex(sftp.getRemoteHash(join(remote, item.path), 0, item.remote.size, digest));
+				same = remoteDigest.equals(Digests.hex(md.digest()));
+			}
+			if(same)
+				item.action = Action.NONE;
+			else if(item.bothChanged)
+				item.action = Action.CONFLICT;
+			else
+				item.action = item.localChanged ? Action.PUSH : Action.PULL;
+		});
+	}
+
+	private void resolveConflicts(List<Item> items) {
+		for(var item : items) {
+			if(item.action != Action.CONFLICT)
+				continue;
+			switch(onConflict) {
+			case local:
+				item.action = Action.PUSH;
+				break;
+			case remote:
+				item.action = Action.PULL;
+				break;
+			case newer:
+				item.action = item.local.modified >= item.remote.modified ? Action.PUSH : Action.PULL;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void createDirectories(Path local, String remote, List<Item> pushes, List<Item> pulls, Set<String> localDirs, Set<String> remoteDirs) throws Exception {
+		var mkdirs = new TreeSet<String>();
+		for(var item : pushes) {
+			var idx = item.path.lastIndexOf('/');
+			if(idx != -1 && !remoteDirs.contains(item.path.substring(0, idx)))
+				mkdirs.add(item.path.substring(0, idx));
+		}
+		var sftp = getSftpClient();
+		for(var dir : mkdirs) {
+			sftp.mkdirs(join(remote, dir));
+		}
+		for(var item : pulls) {
+			var idx = item.path.lastIndexOf('/');
+			if(idx != -1 && !localDirs.contains(item.path.substring(0, idx)))
+				Files.createDirectories(local.resolve(item.path.substring(0, idx)));
+		}
+	}
+
+	/**
+	 * Upload to a temporary file beside the remote file, and only replace the
+	 * remote file with it once it is complete, so an interrupted push never
+	 * leaves a truncated file that looks like a newer version.
+	 */
+	private static void put(SftpClient sftp, InputStream in, String remoteFile) throws Exception {
+		var tmp = remoteFile + ".sync-tmp";
+		try {
+			sftp.put(in, tmp);
+		}
+		catch(Exception e) {
+			try {
+				sftp.rm(tmp);
+			}
+			catch(Exception e2) {
+				/* Leave it for the next run to overwrite */
+			}
+			throw e;
+		}
+		try {
+			sftp.rename(tmp, remoteFile, true);
+		}
+		catch(SftpStatusException sse) {
+			/* No POSIX rename, which is the only one that replaces an existing file */
+			try {
+				sftp.rm(remoteFile);
+			}
+			catch(SftpStatusException sse2) {
+				/* Not there */
+			}
+			sftp.rename(tmp, remoteFile);
+		}
+	}
+
+	private static String relativize(Path root, Path path) {
+		return root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+	}
+
+	private static String join(String folder, String path) {
+		return folder.endsWith("/") ? folder + path : folder + "/" + path;
+	}
+
+	private void count(Progress progress, ProgressTicker.Sample sample, int bytes) throws IOException {
+		if(progress.isCancelled())
+			throw new InterruptedIOException("Cancelled.");
+		try {
+			getRateLimiter().acquire(bytes);
+		}
+		catch(InterruptedException ie) {
+			throw new InterruptedIOException("Interrupted.");
+		}
+		sample.add(bytes);
+	}
+
+	private final class CountingInputStream extends FilterInputStream {
+		private final Progress progress;
+		private final ProgressTicker.Sample sample;
+
+		private CountingInputStream(InputStream in, Progress progress, ProgressTicker.Sample sample) {
+			super(in);
+			this.progress = progress;
+			this.sample = sample;
+		}
+
+		@Override
+		public int read() throws IOException {
+			var b = super.read();
+			if(b != -1)
+				count(progress, sample, 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			var r = super.read(b, off, len);
+			if(r > 0)
+				count(progress, sample, r);
+			return r;
+		}
+	}
+
+	private final class CountingOutputStream extends FilterOutputStream {
+		private final Progress progress;
+		private final ProgressTicker.Sample sample;
+
+		private CountingOutputStream(OutputStream out, Progress progress, ProgressTicker.Sample sample) {
+			super(out);
+			this.progress = progress;
+			this.sample = sample;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count(progress, sample, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count(progress, sample, len);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.sshtools.pushsftp.commands;
+
+import java.util.ArrayList;
+
+import com.sshtools.pushsftp.BackgroundJobs.Job;
+import com.sshtools.pushsftp.BackgroundJobs.State;
+import com.sshtools.pushsftp.PSFTPInteractive;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+@Command(name = "wait", usageHelpAutoWidth = true, mixinStandardHelpOptions = true, description = "Wait for background jobs to finish")
+public class Wait extends SftpCommand {
+
+	@Parameters(arity = "0..", paramLabel = "JOB", description = "the numbers of the jobs to wait for, or all jobs if none are given")
+	private int[] ids;
+
+	@Override
+	protected Integer onCall() throws Exception {
+		var jobs = ((PSFTPInteractive)getRootCommand()).getJobs();
+		var waitFor = new ArrayList<Job>();
+		var result = 0;
+		if(ids == null || ids.length == 0) {
+			waitFor.addAll(jobs.list());
+		}
+		else {
+			for(var id : ids) {
+				var job = jobs.get(id);
+				if(job.isEmpty()) {
+					io().error("No such job {0}", id);
+					result = 1;
+				}
+				else
+					waitFor.add(job.get());
+			}
+		}
+
+		for(var job : waitFor) {
+			job.waitFor(0);
+			io().messageln(Jobs.describe(job));
+			if(job.state() != State.DONE)
+				result = 1;
+			jobs.remove(job);
+		}
+		return result;
+	}
+}
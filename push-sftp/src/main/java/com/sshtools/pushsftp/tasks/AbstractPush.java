@@ -0,0 +1,599 @@
+package com.sshtools.pushsftp.tasks;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.RemoteHash;
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.pushsftp.util.ChunkInputStream;
+import com.sshtools.pushsftp.util.Digests;
+import com.sshtools.pushsftp.util.TransferStats;
+
+/**
+ * Base for uploads that split work over several connections supplied by a
+ * client factory, in the same way as Maverick's own push task.
+ */
+public abstract class AbstractPush implements Callable<Void> {
+
+	/**
+	 * How much of a range that starts at the beginning of a file is written
+	 * before the rest is sent as usual.
+	 */
+	private final static int HEAD_SIZE = 32 * 1024;
+
+	public static abstract class AbstractPushBuilder<P extends AbstractPush, B extends AbstractPushBuilder<P, B>> {
+		private Optional<IntFunction<SshClient>> clients = Optional.empty();
+		private Optional<SftpClient> primarySftpClient = Optional.empty();
+		private final List<Path> paths = new ArrayList<>();
+		private int chunks = 3;
+		private RemoteHash digest = RemoteHash.md5;
+		private int blocksize;
+		private int asyncRequests;
+		private Optional<String> remoteFolder = Optional.empty();
+		private Optional<FileTransferProgress> progress = Optional.empty();
+		private Optional<BiConsumer<String, Object[]>> progressMessages = Optional.empty();
+		private Consumer<SshClient> releaseClient = SshClient::disconnect;
+		private TransferStats stats = TransferStats.none();
+		private boolean integrityVerification;
+		private boolean ignoreIntegrity;
+		private boolean verboseOutput;
+
+		@SuppressWarnings("unchecked")
+		public B withClients(IntFunction<SshClient> clients) {
+			this.clients = Optional.of(clients);
+			return (B)this;
+		}
+
+		/**
+		 * What to do with each additional connection obtained from the client
+		 * factory once it is no longer needed. By default it is disconnected.
+		 *
+		 * @param releaseClient release callback
+		 * @return this for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public B withReleaseClient(Consumer<SshClient> releaseClient) {
+			this.releaseClient = releaseClient;
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withPrimarySftpClient(SftpClient primarySftpClient) {
+			this.primarySftpClient = Optional.of(primarySftpClient);
+			return (B)this;
+		}
+
+		public B withPaths(Path... paths) {
+			return withPaths(Arrays.asList(paths));
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withPaths(List<Path> paths) {
+			this.paths.clear();
+			this.paths.addAll(paths);
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withChunks(int chunks) {
+			this.chunks = chunks;
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withDigest(RemoteHash digest) {
+			this.digest = digest;
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withBlocksize(int blocksize) {
+			this.blocksize = blocksize;
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withAsyncRequests(int asyncRequests) {
+			this.asyncRequests = asyncRequests;
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withRemoteFolder(String remoteFolder) {
+			this.remoteFolder = Optional.of(remoteFolder);
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withProgress(FileTransferProgress progress) {
+			this.progress = Optional.of(progress);
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withProgressMessages(BiConsumer<String, Object[]> progressMessages) {
+			this.progressMessages = Optional.of(progressMessages);
+			return (B)this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public B withStats(TransferStats stats) {
+			this.stats = stats;
+			return (B)this;
+		}
+
+		/**
+		 * Compare a hash of the whole of each remote file with the local file
+		 * once it has been sent, using the <code>check-file</code> SFTP
+		 * extension.
+		 *
+		 * @param integrityVerification verify
+		 * @return this for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public B withIntegrityVerification(boolean integrityVerification) {
+			this.integrityVerification = integrityVerification;
+			return (B)this;
+		}
+
+		/**
+		 * Do not fail verification if the server cannot hash remote files.
+		 *
+		 * @param ignoreIntegrity ignore
+		 * @return this for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public B withIgnoreIntegrity(boolean ignoreIntegrity) {
+			this.ignoreIntegrity = ignoreIntegrity;
+			return (B)this;
+		}
+
+		/**
+		 * Report each range as it is sent.
+		 *
+		 * @param verboseOutput verbose
+		 * @return this for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public B withVerboseOutput(boolean verboseOutput) {
+			this.verboseOutput = verboseOutput;
+			return (B)this;
+		}
+
+		public abstract P build();
+	}
+
+	protected final static class Transfer {
+		private final Path file;
+		private final String remotePath;
+		private final long size;
+
+		protected Transfer(Path file, String remotePath, long size) {
+			this.file = file;
+			this.remotePath = remotePath;
+			this.size = size;
+		}
+
+		public Path file() {
+			return file;
+		}
+
+		public String remotePath() {
+			return remotePath;
+		}
+
+		public long size() {
+			return size;
+		}
+	}
+
+	@FunctionalInterface
+	protected interface WorkOp<T> {
+		void op(SftpClient sftp, T item) throws Exception;
+	}
+
+	protected final IntFunction<SshClient> clients;
+	protected final SftpClient primarySftpClient;
+	protected final List<Path> paths;
+	protected final int chunks;
+	protected final RemoteHash digest;
+	protected final int blocksize;
+	protected final int asyncRequests;
+	protected final String remoteFolder;
+	protected final Optional<FileTransferProgress> progress;
+	protected final Optional<BiConsumer<String, Object[]>> progressMessages;
+	protected final Consumer<SshClient> releaseClient;
+	protected final TransferStats stats;
+	protected final boolean integrityVerification;
+	protected final boolean ignoreIntegrity;
+	protected final boolean verboseOutput;
+
+	private final Map<Path, FileChannel> channels = new ConcurrentHashMap<>();
+	private final ThreadLocal<Integer> connection = ThreadLocal.withInitial(() -> 0);
+
+	protected AbstractPush(AbstractPushBuilder<?, ?> builder) {
+		this.clients = builder.clients.orElseThrow(() -> new IllegalStateException("Clients must be provided."));
+		this.primarySftpClient = builder.primarySftpClient.orElseThrow(() -> new IllegalStateException("Primary SFTP client must be provided."));
+		this.paths = List.copyOf(builder.paths);
+		this.chunks = Math.max(1, builder.chunks);
+		this.digest = builder.digest;
+		this.blocksize = builder.blocksize;
+		this.asyncRequests = builder.asyncRequests;
+		this.remoteFolder = builder.remoteFolder.orElse("");
+		this.progress = builder.progress;
+		this.progressMessages = builder.progressMessages;
+		this.releaseClient = builder.releaseClient;
+		this.stats = builder.stats;
+		this.integrityVerification = builder.integrityVerification;
+		this.ignoreIntegrity = builder.ignoreIntegrity;
+		this.verboseOutput = builder.verboseOutput;
+	}
+
+	@Override
+	public final Void call() throws Exception {
+		var transfers = new ArrayList<Transfer>();
+		var folders = new LinkedHashSet<String>();
+		for(var path : paths) {
+			if(Files.isDirectory(path)) {
+				var base = join(remoteFolder, path.getFileName().toString());
+				try(var walk = Files.walk(path)) {
+					for(var file : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+						var remotePath = join(base, path.relativize(file).toString().replace('\\', '/'));
+						folders.add(remotePath.substring(0, remotePath.lastIndexOf('/')));
+						transfers.add(new Transfer(file, remotePath, Files.size(file)));
+					}
+				}
+			}
+			else {
+				transfers.add(new Transfer(path, join(remoteFolder, path.getFileName().toString()), Files.size(path)));
+			}
+		}
+
+		/* Create each remote folder once, rather than for every file */
+		for(var folder : folders) {
+			primarySftpClient.mkdirs(folder);
+		}
+
+		try {
+			pushAll(transfers);
+		}
+		finally {
+			for(var channel : channels.values()) {
+				try {
+					channel.close();
+				}
+				catch(IOException ioe) {
+				}
+			}
+			channels.clear();
+		}
+		return null;
+	}
+
+	protected void pushAll(List<Transfer> transfers) throws Exception {
+		for(var transfer : transfers) {
+			try {
+				push(transfer.file(), transfer.remotePath());
+				verify(primarySftpClient, transfer.file(), transfer.remotePath());
+			}
+			finally {
+				var channel = channels.remove(transfer.file());
+				if(channel != null)
+					channel.close();
+			}
+		}
+	}
+
+	protected abstract void push(Path file, String remotePath) throws Exception;
+
+	/**
+	 * Process a number of work items using up to <code>workers</code> connections
+	 * from the client factory at once, each with its own SFTP channel. The first
+	 * worker always uses the primary connection. Any additional connections are
+	 * released when all work is done.
+	 *
+	 * @param <T> type of work item
+	 * @param items work items
+	 * @param workers maximum number of workers
+	 * @param op operation to perform on each item
+	 * @throws Exception the first failure, with the total failure count in the message
+	 */
+	protected final <T> void parallel(Collection<T> items, int workers, WorkOp<T> op) throws Exception {
+		parallel(items, workers, 1, op);
+	}
+
+	/**
+	 * Process a number of work items using up to <code>connections</code> connections
+	 * from the client factory, each carrying <code>channelsPerConnection</code> SFTP
+	 * channels, with one worker per channel.
+	 *
+	 * @param <T> type of work item
+	 * @param items work items
+	 * @param connections maximum number of connections
+	 * @param channelsPerConnection number of SFTP channels (and workers) per connection
+	 * @param op operation to perform on each item
+	 * @throws Exception the first failure, with the total failure count in the message
+	 */
+	protected final <T> void parallel(Collection<T> items, int connections, int channelsPerConnection, WorkOp<T> op) throws Exception {
+		if(items.isEmpty())
+			return;
+
+		var queue = new ConcurrentLinkedQueue<T>(items);
+		var count = Math.max(1, Math.min(connections * Math.max(1, channelsPerConnection), items.size()));
+		var clientCount = Math.max(1, Math.min(connections, count));
+		var primary = clients.apply(0);
+		var sshClients = new SshClient[clientCount];
+		var additional = new ArrayList<SshClient>();
+		var executor = Executors.newFixedThreadPool(count);
+		var failed = new AtomicLong();
+		try {
+			var futures = new ArrayList<Future<Void>>();
+			for(int i = 0 ; i < count; i++) {
+				var idx = i % clientCount;
+				if(sshClients[idx] == null) {
+					sshClients[idx] = idx == 0 ? primary : clients.apply(idx);
+					if(sshClients[idx] != primary)
+						additional.add(sshClients[idx]);
+				}
+				var ssh = sshClients[idx];
+				futures.add(executor.submit(() -> {
+					connection.set(idx);
+					Exception firstError = null;
+					try(var sftp = SftpClientBuilder.create().withClient(ssh).build()) {
+						if(blocksize > 0)
+							sftp.setBlockSize(blocksize);
+						if(asyncRequests > 0)
+							sftp.setMaxAsyncRequests(asyncRequests);
+						T item;
+						while((item = queue.poll()) != null) {
+							try {
+								op.op(sftp, item);
+							}
+							catch(InterruptedIOException iioe) {
+								throw iioe;
+							}
+							catch(Exception e) {
+								failed.incrementAndGet();
+								if(firstError == null)
+									firstError = e;
+							}
+						}
+					}
+					if(firstError != null)
+						throw firstError;
+					return null;
+				}));
+			}
+
+			Exception firstError = null;
+			for(var future : futures) {
+				try {
+					future.get();
+				}
+				catch(ExecutionException ee) {
+					if(firstError == null)
+						firstError = ee.getCause() instanceof Exception ? (Exception)ee.getCause() : ee;
+				}
+			}
+			if(firstError != null) {
+				throw new IOException(String.format("%d of %d operations failed. %s",
+						Math.max(1, failed.get()), items.size(), firstError.getMessage()), firstError);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			for(var ssh : additional)
+				releaseClient.accept(ssh);
+		}
+	}
+
+	protected final void sendRange(SftpClient sftp, Path file, String remotePath, long offset, long length, InputStreamFilter filter) throws Exception {
+		var started = System.currentTimeMillis();
+		try(var in = filter.filter(new ChunkInputStream(channel(file), offset, length))) {
+			var position = offset;
+			if(position == 0) {
+				/*
+				 * A put at position 0 opens the file with truncation, which would
+				 * discard ranges other workers have already written, so the start
+				 * of the file is written through a handle opened without it
+				 */
+				position = writeHead(sftp, in, remotePath);
+			}
+			if(position < offset + length) {
+				sftp.put(in, remotePath, new FileTransferProgress() {
+					@Override
+					public boolean isCancelled() {
+						return AbstractPush.this.isCancelled();
+					}
+				}, position);
+			}
+		}
+		catch(Exception e) {
+			stats.chunk(remotePath, connection(), offset, length, started, Optional.of(e));
+			throw e;
+		}
+		stats.chunk(remotePath, connection(), offset, length, started, Optional.empty());
+		if(verboseOutput) {
+			message("Sent {0} bytes at {1} of {2} over connection {3}", length, offset, remotePath, connection());
+		}
+	}
+
+	private static long writeHead(SftpClient sftp, InputStream in, String remotePath) throws Exception {
+		var head = in.readNBytes(HEAD_SIZE);
+		try(var handle = sftp.getSubsystemChannel().openFile(sftp.getAbsolutePath(remotePath), SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE)) {
+			handle.write(0, head, 0, head.length);
+		}
+		return head.length;
+	}
+
+	/**
+	 * If asked to, check that a remote file is the same size as the local file
+	 * and that a hash of its whole content matches. If the server cannot hash
+	 * remote files, the file fails verification unless integrity checks may be
+	 * ignored.
+	 *
+	 * @param sftp client
+	 * @param file local file
+	 * @param remotePath remote path
+	 * @throws Exception if the file fails verification
+	 */
+	protected final void verify(SftpClient sftp, Path file, String remotePath) throws Exception {
+		if(!integrityVerification)
+			return;
+		var size = Files.size(file);
+		var remoteSize = sftp.stat(remotePath).size().longValue();
+		if(remoteSize != size)
+			throw new IOException(String.format("%s failed verification, it is %d bytes rather than %d.", remotePath, remoteSize, size));
+		if(size == 0)
+			return;
+		String remote;
+		try {
+			remote = Digests.hex(sftp.getRemoteHash(remotePath, 0, size, digest));
+		}
+		catch(SftpStatusException sse) {
+			if(ignoreIntegrity) {
+				message("{0} was not verified, the server does not support remote hashes", remotePath);
+				return;
+			}
+			throw new IOException(String.format("%s could not be verified, the server does not support remote hashes. %s", remotePath, sse.getMessage()), sse);
+		}
+		if(!remote.equals(digest(file, 0, size)))
+			throw new IOException(String.format("%s failed verification, its content differs from the local file.", remotePath));
+		if(verboseOutput) {
+			message("Verified {0}", remotePath);
+		}
+	}
+
+	/**
+	 * Get the index of the connection the current worker is using, 0 being the
+	 * primary connection.
+	 *
+	 * @return connection index
+	 */
+	protected final int connection() {
+		return connection.get();
+	}
+
+	protected final String digest(Path file, long offset, long length) throws IOException {
+		var md = Digests.create(digest);
+		try(var in = new DigestInputStream(new ChunkInputStream(channel(file), offset, length), md)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		return Digests.hex(md.digest());
+	}
+
+	/**
+	 * Get a channel for reading a local file, shared by all workers. Reads are
+	 * positional, so workers may read different ranges at the same time. The
+	 * channel is closed when the task completes.
+	 *
+	 * @param file file
+	 * @return channel
+	 * @throws IOException on error
+	 */
+	protected final FileChannel channel(Path file) throws IOException {
+		try {
+			return channels.computeIfAbsent(file, f -> {
+				try {
+					return FileChannel.open(f, StandardOpenOption.READ);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		catch(UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+	}
+
+	protected final boolean isCancelled() {
+		return progress.map(FileTransferProgress::isCancelled).orElse(false);
+	}
+
+	protected final void message(String fmt, Object... args) {
+		progressMessages.ifPresent(m -> m.accept(fmt, args));
+	}
+
+	protected static String join(String folder, String name) {
+		if(folder.equals(""))
+			return name;
+		return folder.endsWith("/") ? folder + name : folder + "/" + name;
+	}
+
+	@FunctionalInterface
+	protected interface InputStreamFilter {
+		InputStream filter(InputStream in) throws IOException;
+	}
+
+	/**
+	 * Counts bytes as they are read and reports the running total for the
+	 * whole file to the progress, so several workers can share one progress.
+	 */
+	protected final class CountingInputStream extends FilterInputStream {
+		private final AtomicLong transferred;
+		private final long total;
+
+		protected CountingInputStream(InputStream in, AtomicLong transferred, long total) {
+			super(in);
+			this.transferred = transferred;
+			this.total = total;
+		}
+
+		@Override
+		public int read() throws IOException {
+			var b = super.read();
+			if(b != -1)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			var r = super.read(b, off, len);
+			if(r > 0)
+				count(r);
+			return r;
+		}
+
+		private void count(int read) throws IOException {
+			var now = transferred.addAndGet(read);
+			if(progress.isPresent()) {
+				if(progress.get().isCancelled())
+					throw new InterruptedIOException("Cancelled.");
+				progress.get().progressed(Math.min(now, total));
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.sshtools.pushsftp.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.util.Digests;
+
+/**
+ * An upload that only sends the blocks of a file that differ from the file
+ * already on the server. Remote block hashes are obtained using the
+ * <code>check-file</code> SFTP extension, so the server must support it,
+ * otherwise the whole file is sent.
+ */
+public final class DeltaPush extends AbstractPush {
+
+	public final static int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	public final static class DeltaPushBuilder extends AbstractPushBuilder<DeltaPush, DeltaPushBuilder> {
+		private int deltaBlockSize = DEFAULT_BLOCK_SIZE;
+
+		public static DeltaPushBuilder create() {
+			return new DeltaPushBuilder();
+		}
+
+		public DeltaPushBuilder withDeltaBlockSize(int deltaBlockSize) {
+			this.deltaBlockSize = deltaBlockSize;
+			return this;
+		}
+
+		@Override
+		public DeltaPush build() {
+			return new DeltaPush(this);
+		}
+	}
+
+	private final static class Block {
+		private final long offset;
+		private final long length;
+
+		private Block(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private final int deltaBlockSize;
+
+	private DeltaPush(DeltaPushBuilder builder) {
+		super(builder);
+		this.deltaBlockSize = builder.deltaBlockSize < 1 ? DEFAULT_BLOCK_SIZE : builder.deltaBlockSize;
+	}
+
+	@Override
+	protected void push(Path file, String remotePath) throws Exception {
+		var size = Files.size(file);
+		var remoteSize = remoteSize(file, remotePath, size);
+
+		if(remoteSize == -1) {
+			/* Create or truncate the remote file, all blocks will be sent */
+			primarySftpClient.put(new ByteArrayInputStream(new byte[0]), remotePath);
+			remoteSize = 0;
+		}
+
+		var blocks = new ArrayList<Block>();
+		for(long offset = 0 ; offset < size; offset += deltaBlockSize) {
+			blocks.add(new Block(offset, Math.min(deltaBlockSize, size - offset)));
+		}
+
+		var processed = new AtomicLong();
+		var sent = new AtomicLong();
+		var changed = new AtomicLong();
+		var comparable = remoteSize;
+		progress.ifPresent(p -> p.started(size, remotePath));
+
+		parallel(blocks, chunks, (sftp, block) -> {
+			if(block.offset + block.length <= comparable) {
+				var remote = Digests.hex(sftp.getRemoteHash(remotePath, block.offset, block.length, digest));
+				if(remote.equals(digest(file, block.offset, block.length))) {
+					var now = processed.addAndGet(block.length);
+					progress.ifPresent(p -> p.progressed(now));
+					return;
+				}
+			}
+			changed.incrementAndGet();
+			sendRange(sftp, file, remotePath, block.offset, block.length, in -> new CountingInputStream(in, processed, size));
+			sent.addAndGet(block.length);
+		});
+
+		message("{0}: {1} of {2} blocks changed, sent {3} of {4}", remotePath, changed.get(), blocks.size(),
+				IOUtils.toByteSize(sent.get()), IOUtils.toByteSize(size));
+		progress.ifPresent(FileTransferProgress::completed);
+	}
+
+	/**
+	 * Get the size of the remote file if blocks of it may be compared with the
+	 * local file, or -1 if the whole file must be sent.
+	 */
+	private long remoteSize(Path file, String remotePath, long size) throws Exception {
+		long remoteSize;
+		try {
+			remoteSize = primarySftpClient.stat(remotePath).size().longValue();
+		}
+		catch(SftpStatusException sse) {
+			return -1;
+		}
+
+		if(remoteSize > size) {
+			message("{0} is larger than the local file, sending the whole file", remotePath);
+			return -1;
+		}
+		else if(remoteSize == 0) {
+			return -1;
+		}
+
+		try {
+			primarySftpClient.getRemoteHash(remotePath, 0, Math.min(deltaBlockSize, remoteSize), digest);
+		}
+		catch(SftpStatusException sse) {
+			message("The server does not support remote hashes ({0}), sending the whole of {1}", sse.getMessage(), remotePath);
+			return -1;
+		}
+		return remoteSize;
+	}
+}
@@ -0,0 +1,153 @@
+package com.sshtools.pushsftp.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.sshtools.client.sftp.RemoteHash;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.pushsftp.util.ChunkJournal;
+import com.sshtools.pushsftp.util.ChunkJournal.Chunk;
+import com.sshtools.pushsftp.util.Digests;
+
+/**
+ * A chunked upload that records every completed chunk in a {@link ChunkJournal}.
+ * If the transfer is interrupted, running it again will only send the chunks
+ * that were not completed, as long as the remote file still holds the rest.
+ */
+public final class ResumablePush extends AbstractPush {
+
+	public final static Path DEFAULT_JOURNAL_DIRECTORY = Path.of(System.getProperty("user.home"), ".push-sftp", "journals");
+
+	public final static class ResumablePushBuilder extends AbstractPushBuilder<ResumablePush, ResumablePushBuilder> {
+		private Path journalDirectory = DEFAULT_JOURNAL_DIRECTORY;
+		private String target = "";
+
+		public static ResumablePushBuilder create() {
+			return new ResumablePushBuilder();
+		}
+
+		public ResumablePushBuilder withJournalDirectory(Path journalDirectory) {
+			this.journalDirectory = journalDirectory;
+			return this;
+		}
+
+		/**
+		 * A string identifying the remote server (e.g. <code>user@host:port</code>), used
+		 * to keep journals for the same remote path on different servers apart.
+		 *
+		 * @param target target
+		 * @return this for chaining
+		 */
+		public ResumablePushBuilder withTarget(String target) {
+			this.target = target;
+			return this;
+		}
+
+		@Override
+		public ResumablePush build() {
+			return new ResumablePush(this);
+		}
+	}
+
+	private final Path journalDirectory;
+	private final String target;
+
+	private ResumablePush(ResumablePushBuilder builder) {
+		super(builder);
+		this.journalDirectory = builder.journalDirectory;
+		this.target = builder.target;
+	}
+
+	@Override
+	protected void push(Path file, String remotePath) throws Exception {
+		var journal = ChunkJournal.open(journalFile(file, remotePath), remotePath, file, chunks, Digests.algorithm(digest));
+
+		if(journal.resuming()) {
+			for(var chunk : journal.chunks()) {
+				if(chunk.complete() && !chunk.digest().get().equals(digest(file, chunk.offset(), chunk.length()))) {
+					journal.invalidate(chunk);
+				}
+			}
+			checkRemote(journal, remotePath);
+		}
+
+		if(journal.resuming()) {
+			message("Resuming {0}, {1} of {2} chunks already sent", remotePath,
+					journal.chunks().stream().filter(Chunk::complete).count(), journal.chunks().size());
+		}
+		else {
+			/* Create or truncate the remote file */
+			primarySftpClient.put(new ByteArrayInputStream(new byte[0]), remotePath);
+		}
+
+		var pending = journal.chunks().stream().filter(c -> !c.complete()).collect(Collectors.toList());
+		var transferred = new AtomicLong(journal.completedBytes());
+		progress.ifPresent(p -> p.started(journal.size(), remotePath));
+
+		try {
+			parallel(pending, pending.size(), (sftp, chunk) -> {
+				var md = Digests.create(digest);
+				sendRange(sftp, file, remotePath, chunk.offset(), chunk.length(),
+						in -> new DigestInputStream(new CountingInputStream(in, transferred, journal.size()), md));
+				journal.complete(chunk, Digests.hex(md.digest()));
+			});
+		}
+		catch(Exception e) {
+			message("{0} was interrupted, run the push again with --resume to send the remainder", remotePath);
+			throw e;
+		}
+
+		journal.delete();
+		progress.ifPresent(FileTransferProgress::completed);
+	}
+
+	/**
+	 * Check the remote file still holds the chunks the journal has as sent,
+	 * as it may have been removed, truncated or replaced since. If it is too
+	 * small the whole file is sent again. Otherwise, where the server can hash
+	 * ranges of files, any chunk whose remote hash no longer matches is sent
+	 * again.
+	 */
+	private void checkRemote(ChunkJournal journal, String remotePath) throws Exception {
+		long remoteSize;
+		try {
+			remoteSize = primarySftpClient.stat(remotePath).size().longValue();
+		}
+		catch(SftpStatusException sse) {
+			remoteSize = -1;
+		}
+
+		var complete = journal.chunks().stream().filter(Chunk::complete).collect(Collectors.toList());
+		var end = complete.stream().mapToLong(c -> c.offset() + c.length()).max().orElse(0);
+		if(remoteSize < end) {
+			message("{0} has changed since the push was interrupted, sending the whole file", remotePath);
+			journal.reset();
+			return;
+		}
+
+		for(var chunk : complete) {
+			String remote;
+			try {
+				remote = Digests.hex(primarySftpClient.getRemoteHash(remotePath, chunk.offset(), chunk.length(), digest));
+			}
+			catch(SftpStatusException sse) {
+				/* No remote hashes, the size is all that can be checked */
+				return;
+			}
+			if(!remote.equals(chunk.digest().get())) {
+				journal.invalidate(chunk);
+			}
+		}
+	}
+
+	private Path journalFile(Path file, String remotePath) {
+		var md = Digests.create(RemoteHash.sha1);
+		md.update((target + "\n" + file.toAbsolutePath() + "\n" + remotePath).getBytes(StandardCharsets.UTF_8));
+		return journalDirectory.resolve(Digests.hex(md.digest()) + ".journal");
+	}
+}
@@ -0,0 +1,730 @@
+package com.sshtools.pushsftp.tasks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.RemoteHash;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.pushsftp.util.ChunkInputStream;
+import com.sshtools.pushsftp.util.Digests;
+import com.sshtools.pushsftp.util.TransferStats;
+
+/**
+ * A download of any number of remote files, and directories of files, spread
+ * over a number of workers, each with its own SFTP channel on one of several
+ * connections. Files, and ranges of large files, are taken from a shared
+ * queue largest first. Once the queue is empty, a worker that runs out of
+ * work steals the second half of the largest range another worker is still
+ * downloading, so every worker stays busy until the whole batch is done
+ * rather than waiting on one large file. Each file is downloaded to a
+ * temporary <code>.part</code> file beside it, which is set to its final size
+ * when first opened, and every range is written in place with positional
+ * writes to the one channel, so workers never share a file position. Only a
+ * complete file is moved into place, so a failed or cancelled download never
+ * leaves a mix of old and new content behind. The
+ * progress is of the whole batch, while each file is recorded in the
+ * statistics as it completes.
+ */
+public final class ScheduledPull implements Callable<Void> {
+
+	/**
+	 * Files larger than this are split into ranges of this size up front.
+	 */
+	public final static long DEFAULT_RANGE_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * A range is only split if both halves would be at least this long.
+	 */
+	private final static long MIN_STEAL = 1024 * 1024;
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	public final static class ScheduledPullBuilder {
+		private Optional<IntFunction<SshClient>> clients = Optional.empty();
+		private Optional<SftpClient> primarySftpClient = Optional.empty();
+		private final List<String> paths = new ArrayList<>();
+		private Optional<Path> localFolder = Optional.empty();
+		private Optional<Path> localFile = Optional.empty();
+		private int connections = 1;
+		private int channels = 1;
+		private long rangeSize = DEFAULT_RANGE_SIZE;
+		private long syncInterval;
+		private boolean recursive = true;
+		private int blocksize;
+		private int asyncRequests;
+		private RemoteHash digest = RemoteHash.md5;
+		private boolean verifyIntegrity;
+		private boolean ignoreIntegrity;
+		private boolean verboseOutput;
+		private Optional<FileTransferProgress> progress = Optional.empty();
+		private Optional<BiConsumer<String, Object[]>> progressMessages = Optional.empty();
+		private Consumer<SshClient> releaseClient = SshClient::disconnect;
+		private TransferStats stats = TransferStats.none();
+
+		public static ScheduledPullBuilder create() {
+			return new ScheduledPullBuilder();
+		}
+
+		public ScheduledPullBuilder withClients(IntFunction<SshClient> clients) {
+			this.clients = Optional.of(clients);
+			return this;
+		}
+
+		/**
+		 * What to do with each additional connection obtained from the client
+		 * factory once it is no longer needed. By default it is disconnected.
+		 *
+		 * @param releaseClient release callback
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withReleaseClient(Consumer<SshClient> releaseClient) {
+			this.releaseClient = releaseClient;
+			return this;
+		}
+
+		public ScheduledPullBuilder withPrimarySftpClient(SftpClient primarySftpClient) {
+			this.primarySftpClient = Optional.of(primarySftpClient);
+			return this;
+		}
+
+		public ScheduledPullBuilder withPaths(String... paths) {
+			return withPaths(Arrays.asList(paths));
+		}
+
+		public ScheduledPullBuilder withPaths(List<String> paths) {
+			this.paths.addAll(paths);
+			return this;
+		}
+
+		/**
+		 * The local directory to download to. Defaults to the local directory of
+		 * the primary SFTP client.
+		 *
+		 * @param localFolder local folder
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withLocalFolder(Optional<Path> localFolder) {
+			this.localFolder = localFolder;
+			return this;
+		}
+
+		/**
+		 * The local file to download a single remote file to, instead of a file
+		 * of the same name in the local folder.
+		 *
+		 * @param localFile local file
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withLocalFile(Path localFile) {
+			this.localFile = Optional.of(localFile);
+			return this;
+		}
+
+		/**
+		 * The maximum number of connections to use, including the primary one.
+		 *
+		 * @param connections connections
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withConnections(int connections) {
+			this.connections = connections;
+			return this;
+		}
+
+		/**
+		 * The number of SFTP channels (and so workers) on each connection.
+		 *
+		 * @param channels channels per connection
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withChannels(int channels) {
+			this.channels = channels;
+			return this;
+		}
+
+		public ScheduledPullBuilder withRangeSize(long rangeSize) {
+			this.rangeSize = rangeSize;
+			return this;
+		}
+
+		/**
+		 * Force the data written to each local file to disk every time this many
+		 * bytes have been written to it, and when it completes, rather than
+		 * leaving it to the operating system. Zero, the default, never does.
+		 *
+		 * @param syncInterval bytes between each sync
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withSyncInterval(long syncInterval) {
+			this.syncInterval = syncInterval;
+			return this;
+		}
+
+		/**
+		 * Whether to download the contents of remote directories, which is the
+		 * default. Otherwise directories are skipped.
+		 *
+		 * @param recursive recursive
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withRecursive(boolean recursive) {
+			this.recursive = recursive;
+			return this;
+		}
+
+		public ScheduledPullBuilder withBlocksize(int blocksize) {
+			this.blocksize = blocksize;
+			return this;
+		}
+
+		public ScheduledPullBuilder withAsyncRequests(int asyncRequests) {
+			this.asyncRequests = asyncRequests;
+			return this;
+		}
+
+		public ScheduledPullBuilder withDigest(RemoteHash digest) {
+			this.digest = digest;
+			return this;
+		}
+
+		public ScheduledPullBuilder withIntegrityVerification(boolean verifyIntegrity) {
+			this.verifyIntegrity = verifyIntegrity;
+			return this;
+		}
+
+		public ScheduledPullBuilder withIgnoreIntegrity(boolean ignoreIntegrity) {
+			this.ignoreIntegrity = ignoreIntegrity;
+			return this;
+		}
+
+		/**
+		 * Report each range as it is received.
+		 *
+		 * @param verboseOutput verbose
+		 * @return this for chaining
+		 */
+		public ScheduledPullBuilder withVerboseOutput(boolean verboseOutput) {
+			this.verboseOutput = verboseOutput;
+			return this;
+		}
+
+		public ScheduledPullBuilder withProgress(FileTransferProgress progress) {
+			this.progress = Optional.of(progress);
+			return this;
+		}
+
+		public ScheduledPullBuilder withProgressMessages(BiConsumer<String, Object[]> progressMessages) {
+			this.progressMessages = Optional.of(progressMessages);
+			return this;
+		}
+
+		public ScheduledPullBuilder withStats(TransferStats stats) {
+			this.stats = stats;
+			return this;
+		}
+
+		public ScheduledPull build() {
+			return new ScheduledPull(this);
+		}
+	}
+
+	/**
+	 * A remote file and where it is being downloaded to.
+	 */
+	private final static class Target {
+		private final String remotePath;
+		private final Path localPath;
+		private final Path partPath;
+		private final long size;
+		private final long modified;
+		private final AtomicLong remaining;
+		private final AtomicLong unsynced = new AtomicLong();
+		private final AtomicLong received = new AtomicLong();
+		private TransferStats.Tracked tracked;
+		private FileChannel channel;
+		private volatile boolean failed;
+		private volatile boolean completed;
+
+		private Target(String remotePath, Path localPath, long size, long modified) {
+			this.remotePath = remotePath;
+			this.localPath = localPath;
+			this.partPath = localPath.resolveSibling(localPath.getFileName() + ".part");
+			this.size = size;
+			this.modified = modified;
+			this.remaining = new AtomicLong(size);
+		}
+
+		/**
+		 * Get the channel every range of this file is written to, opening the
+		 * part file the first time, emptying anything left in it by an earlier
+		 * download, and setting it to its final size, so ranges are written in
+		 * place rather than extending the file as they go.
+		 *
+		 * @return channel
+		 * @throws IOException on error
+		 */
+		private synchronized FileChannel channel() throws IOException {
+			if(channel == null) {
+				channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				if(size > 0)
+					channel.write(ByteBuffer.allocate(1), size - 1);
+			}
+			return channel;
+		}
+
+		/**
+		 * Get the record of this file in the statistics, starting it when the
+		 * first of its ranges starts.
+		 *
+		 * @param stats statistics
+		 * @return record
+		 */
+		private synchronized TransferStats.Tracked tracked(TransferStats stats) {
+			if(tracked == null)
+				tracked = stats.file(remotePath, size);
+			return tracked;
+		}
+
+		private synchronized void force() throws IOException {
+			if(channel != null)
+				channel.force(true);
+		}
+
+		private synchronized void close() throws IOException {
+			if(channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * A range of a file. Its end may be brought forward by a worker that steals
+	 * the rest of it, until the worker downloading it closes it.
+	 */
+	private final static class Range {
+		private final Target target;
+		private final long offset;
+		private final AtomicLong end;
+		private volatile long position;
+
+		private Range(Target target, long offset, long end) {
+			this.target = target;
+			this.offset = offset;
+			this.end = new AtomicLong(end);
+			this.position = offset;
+		}
+
+		private long remaining() {
+			return end.get() - position;
+		}
+
+		/**
+		 * Stop the range from being stolen from.
+		 *
+		 * @return the length of the range
+		 */
+		private long close() {
+			return Math.max(0, end.getAndSet(Long.MIN_VALUE) - offset);
+		}
+	}
+
+	private final IntFunction<SshClient> clients;
+	private final SftpClient primarySftpClient;
+	private final List<String> paths;
+	private final Optional<Path> localFolder;
+	private final Optional<Path> localFile;
+	private final int connections;
+	private final int channels;
+	private final long rangeSize;
+	private final long syncInterval;
+	private final boolean recursive;
+	private final int blocksize;
+	private final int asyncRequests;
+	private final RemoteHash digest;
+	private final boolean verifyIntegrity;
+	private final boolean ignoreIntegrity;
+	private final boolean verboseOutput;
+	private final Optional<FileTransferProgress> progress;
+	private final Optional<BiConsumer<String, Object[]>> progressMessages;
+	private final Consumer<SshClient> releaseClient;
+	private final TransferStats stats;
+
+	private final LinkedBlockingDeque<Range> queue = new LinkedBlockingDeque<>();
+	private final Set<Range> active = ConcurrentHashMap.newKeySet();
+	private final AtomicLong transferred = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong steals = new AtomicLong();
+	private final ThreadLocal<Integer> connection = ThreadLocal.withInitial(() -> 0);
+
+	private ScheduledPull(ScheduledPullBuilder builder) {
+		this.clients = builder.clients.orElseThrow(() -> new IllegalStateException("Clients must be provided."));
+		this.primarySftpClient = builder.primarySftpClient.orElseThrow(() -> new IllegalStateException("Primary SFTP client must be provided."));
+		this.paths = List.copyOf(builder.paths);
+		this.localFolder = builder.localFolder;
+		this.localFile = builder.localFile;
+		this.connections = Math.max(1, builder.connections);
+		this.channels = Math.max(1, builder.channels);
+		this.rangeSize = Math.max(MIN_STEAL * 2, builder.rangeSize);
+		this.syncInterval = Math.max(0, builder.syncInterval);
+		this.recursive = builder.recursive;
+		this.blocksize = builder.blocksize;
+		this.asyncRequests = builder.asyncRequests;
+		this.digest = builder.digest;
+		this.verifyIntegrity = builder.verifyIntegrity;
+		this.ignoreIntegrity = builder.ignoreIntegrity;
+		this.verboseOutput = builder.verboseOutput;
+		this.progress = builder.progress;
+		this.progressMessages = builder.progressMessages;
+		this.releaseClient = builder.releaseClient;
+		this.stats = builder.stats;
+	}
+
+	@Override
+	public Void call() throws Exception {
+		var folder = localFolder.orElseGet(() -> Path.of(primarySftpClient.lpwd()));
+		var targets = new ArrayList<Target>();
+		for(var path : paths) {
+			var remotePath = absolute(path);
+			var attrs = primarySftpClient.stat(remotePath);
+			var name = remotePath.substring(remotePath.lastIndexOf('/') + 1);
+			if(attrs.isDirectory()) {
+				if(localFile.isPresent())
+					throw new IllegalArgumentException(String.format("%s is a directory, so cannot be downloaded to the file %s.", remotePath, localFile.get()));
+				if(recursive)
+					walk(remotePath, folder.resolve(name), targets);
+				else
+					message("Skipping {0}, it is a directory", remotePath);
+			}
+			else if(attrs.isFile()) {
+				if(localFile.isPresent() && paths.size() > 1)
+					throw new IllegalArgumentException(String.format("%s is not a directory, so only one file may be downloaded to it.", localFile.get()));
+				targets.add(new Target(remotePath, localFile.orElse(folder.resolve(name)),
+						attrs.size().longValue(), attrs.lastModifiedTime().toMillis()));
+			}
+			else
+				message("Skipping {0}, it is not a regular file", remotePath);
+		}
+
+		/* Two files downloaded to one place would be written into the same part file at once */
+		var destinations = new HashMap<Path, String>();
+		for(var target : targets) {
+			var other = destinations.putIfAbsent(target.localPath.toAbsolutePath().normalize(), target.remotePath);
+			if(other != null)
+				throw new IllegalArgumentException(String.format("%s and %s would both be downloaded to %s.", other, target.remotePath, target.localPath));
+		}
+
+		var total = targets.stream().mapToLong(t -> t.size).sum();
+		var started = System.currentTimeMillis();
+		progress.ifPresent(p -> p.started(total, targets.size() == 1 ? targets.get(0).remotePath : targets.size() + " files"));
+
+		/* Largest first, so the long transfers start straight away */
+		targets.sort(Comparator.comparingLong((Target t) -> t.size).reversed());
+		for(var target : targets) {
+			if(target.size == 0) {
+				var tracked = target.tracked(stats);
+				try {
+					target.channel();
+					complete(primarySftpClient, target);
+				}
+				catch(Exception e) {
+					stats.finished(tracked, Optional.of(e));
+					throw e;
+				}
+				continue;
+			}
+			for(long offset = 0 ; offset < target.size; offset += rangeSize) {
+				queue.add(new Range(target, offset, Math.min(target.size, offset + rangeSize)));
+			}
+		}
+
+		try {
+			run(total);
+		}
+		finally {
+			for(var target : targets) {
+				target.close();
+				if(!target.completed)
+					Files.deleteIfExists(target.partPath);
+			}
+		}
+
+		progress.ifPresent(FileTransferProgress::completed);
+		var seconds = Math.max(1, (System.currentTimeMillis() - started) / 1000);
+		message("Received {0} files ({1}), {2}/s, {3} ranges stolen", targets.size(), IOUtils.toByteSize(total),
+				IOUtils.toByteSize(total / seconds), steals.get());
+		return null;
+	}
+
+	private void run(long total) throws Exception {
+		if(queue.isEmpty())
+			return;
+
+		/* No more workers than there could ever be ranges for */
+		var count = (int)Math.max(1, Math.min(connections * channels, Math.max(queue.size(), total / (MIN_STEAL * 2))));
+		var clientCount = Math.max(1, Math.min(connections, count));
+		var primary = clients.apply(0);
+		var sshClients = new SshClient[clientCount];
+		var additional = new ArrayList<SshClient>();
+		var executor = Executors.newFixedThreadPool(count);
+		try {
+			var futures = new ArrayList<Future<Void>>();
+			for(int i = 0 ; i < count; i++) {
+				var idx = i % clientCount;
+				if(sshClients[idx] == null) {
+					sshClients[idx] = idx == 0 ? primary : clients.apply(idx);
+					if(sshClients[idx] != primary)
+						additional.add(sshClients[idx]);
+				}
+				var ssh = sshClients[idx];
+				futures.add(executor.submit(() -> {
+					connection.set(idx);
+					try(var sftp = SftpClientBuilder.create().withClient(ssh).build()) {
+						if(blocksize > 0)
+							sftp.setBlockSize(blocksize);
+						if(asyncRequests > 0)
+							sftp.setMaxAsyncRequests(asyncRequests);
+						Range range;
+						while((range = next()) != null) {
+							download(sftp, range);
+						}
+					}
+					return null;
+				}));
+			}
+
+			Exception firstError = null;
+			for(var future : futures) {
+				try {
+					future.get();
+				}
+				catch(ExecutionException ee) {
+					if(firstError == null)
+						firstError = ee.getCause() instanceof Exception ? (Exception)ee.getCause() : ee;
+				}
+			}
+			if(firstError != null)
+				throw firstError;
+			if(failures.get() > 0)
+				throw new IOException(String.format("%d ranges failed to download.", failures.get()));
+		}
+		finally {
+			executor.shutdownNow();
+			for(var ssh : additional)
+				releaseClient.accept(ssh);
+		}
+	}
+
+	/**
+	 * Get the next range to download, stealing half of the largest range still
+	 * being downloaded if there is nothing left in the queue.
+	 *
+	 * @return range, or <code>null</code> if there is no work left
+	 */
+	private Range next() {
+		var range = queue.poll();
+		if(range != null) {
+			active.add(range);
+			return range;
+		}
+
+		while(true) {
+			Range victim = null;
+			for(var candidate : active) {
+				if(candidate.end.get() < 0)
+					continue;
+				if(victim == null || candidate.remaining() > victim.remaining())
+					victim = candidate;
+			}
+			if(victim == null)
+				return null;
+
+			var end = victim.end.get();
+			var position = victim.position;
+			if(end < 0)
+				continue;
+
+			/* Leave the victim what it may already be reading, plus a margin */
+			var from = position + BUFFER_SIZE * 2;
+			if(end - from < MIN_STEAL * 2)
+				return null;
+			var mid = from + (end - from) / 2;
+			if(victim.end.compareAndSet(end, mid)) {
+				steals.incrementAndGet();
+				var stolen = new Range(victim.target, mid, end);
+				active.add(stolen);
+				return stolen;
+			}
+		}
+	}
+
+	private void download(SftpClient sftp, Range range) throws IOException {
+		var started = System.currentTimeMillis();
+		var target = range.target;
+		try {
+			if(target.failed)
+				throw new IOException("Another range of this file failed.");
+			var tracked = target.tracked(stats);
+
+			var channel = target.channel();
+			var buf = ByteBuffer.allocate(BUFFER_SIZE);
+			try(var in = sftp.getInputStream(target.remotePath, range.offset)) {
+				var pos = range.offset;
+				while(pos < range.end.get()) {
+					if(isCancelled())
+						throw new InterruptedIOException("Cancelled.");
+					var want = (int)Math.min(BUFFER_SIZE, range.end.get() - pos);
+					var r = in.read(buf.array(), 0, want);
+					if(r == -1)
+						throw new IOException(String.format("%s ended early at %d.", target.remotePath, pos));
+
+					/* The end may have been brought forward while reading */
+					r = (int)Math.min(r, range.end.get() - pos);
+					buf.position(0).limit(r);
+					var at = pos;
+					while(buf.hasRemaining()) {
+						at += channel.write(buf, at);
+					}
+					pos += r;
+					range.position = pos;
+
+					/* Whichever worker takes a file past the interval syncs all of it */
+					if(syncInterval > 0) {
+						var unsynced = target.unsynced.addAndGet(r);
+						if(unsynced >= syncInterval && target.unsynced.compareAndSet(unsynced, 0))
+							channel.force(false);
+					}
+
+					stats.progressed(tracked, target.received.addAndGet(r));
+					var now = transferred.addAndGet(r);
+					progress.ifPresent(p -> p.progressed(now));
+				}
+			}
+
+			var length = range.close();
+			stats.chunk(target.remotePath, connection.get(), range.offset, length, started, Optional.empty());
+			if(verboseOutput) {
+				message("Received {0} bytes at {1} of {2} over connection {3}", length, range.offset, target.remotePath, connection.get());
+			}
+			if(target.remaining.addAndGet(-length) == 0)
+				complete(sftp, target);
+		}
+		catch(InterruptedIOException iioe) {
+			throw iioe;
+		}
+		catch(Exception e) {
+			target.failed = true;
+			failures.incrementAndGet();
+			stats.finished(target.tracked(stats), Optional.of(e));
+			stats.chunk(target.remotePath, connection.get(), range.offset, range.close(), started, Optional.of(e));
+			message("Failed to download {0} from {1}. {2}", target.remotePath, range.offset, e.getMessage());
+		}
+		finally {
+			active.remove(range);
+		}
+	}
+
+	private void complete(SftpClient sftp, Target target) throws Exception {
+		if(syncInterval > 0)
+			target.force();
+		target.close();
+		Files.setLastModifiedTime(target.partPath, FileTime.fromMillis(target.modified));
+		if(verifyIntegrity)
+			verify(sftp, target);
+		try {
+			Files.move(target.partPath, target.localPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException amnse) {
+			Files.move(target.partPath, target.localPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+		target.completed = true;
+		stats.finished(target.tracked(stats), Optional.empty());
+	}
+
+	private void verify(SftpClient sftp, Target target) throws Exception {
+		String remote;
+		try {
+			remote = Digests.hex(sftp.getRemoteHash(target.remotePath, 0, target.size, digest));
+		}
+		catch(Exception e) {
+			if(ignoreIntegrity) {
+				message("Could not verify {0}. {1}", target.remotePath, e.getMessage());
+				return;
+			}
+			throw e;
+		}
+		var md = Digests.create(digest);
+		try(var in = new DigestInputStream(ChunkInputStream.open(target.partPath, 0, target.size), md)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		if(!remote.equals(Digests.hex(md.digest())))
+			throw new IOException(String.format("Integrity check failed for %s.", target.remotePath));
+		if(verboseOutput) {
+			message("Verified {0}", target.remotePath);
+		}
+	}
+
+	private void walk(String remoteDir, Path localDir, List<Target> targets) throws Exception {
+		Files.createDirectories(localDir);
+		for(var it = primarySftpClient.lsIterator(remoteDir); it.hasNext(); ) {
+			var file = it.next();
+			var name = file.getFilename();
+			if(name.equals(".") || name.equals(".."))
+				continue;
+			var attrs = file.attributes();
+			var remotePath = remoteDir.endsWith("/") ? remoteDir + name : remoteDir + "/" + name;
+			if(attrs.isDirectory())
+				walk(remotePath, localDir.resolve(name), targets);
+			else if(attrs.isFile())
+				targets.add(new Target(remotePath, localDir.resolve(name), attrs.size().longValue(), attrs.lastModifiedTime().toMillis()));
+			else
+				message("Skipping {0}, it is not a regular file", remotePath);
+		}
+	}
+
+	private String absolute(String path) throws Exception {
+		if(path.startsWith("/"))
+			return path;
+		var pwd = primarySftpClient.pwd();
+		return pwd.endsWith("/") ? pwd + path : pwd + "/" + path;
+	}
+
+	private boolean isCancelled() {
+		return progress.map(FileTransferProgress::isCancelled).orElse(false) || Thread.currentThread().isInterrupted();
+	}
+
+	private void message(String fmt, Object... args) {
+		progressMessages.ifPresent(m -> m.accept(fmt, args));
+	}
+}
@@ -0,0 +1,93 @@
+package com.sshtools.pushsftp.tasks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.util.IOUtils;
+
+/**
+ * An upload for trees of many small files, where the time taken is dominated
+ * by the round trips needed to open, write and close each file rather than
+ * by bandwidth. Instead of splitting files into chunks, whole files are sent
+ * concurrently over many SFTP channels, so many files are in flight at once
+ * and the link stays full.
+ */
+public final class SmallFilePush extends AbstractPush {
+
+	public final static int DEFAULT_CHANNELS = 8;
+
+	public final static class SmallFilePushBuilder extends AbstractPushBuilder<SmallFilePush, SmallFilePushBuilder> {
+		private int channels = DEFAULT_CHANNELS;
+
+		public static SmallFilePushBuilder create() {
+			return new SmallFilePushBuilder();
+		}
+
+		/**
+		 * The number of SFTP channels to open on each connection. Each channel
+		 * sends one file at a time.
+		 *
+		 * @param channels channels per connection
+		 * @return this for chaining
+		 */
+		public SmallFilePushBuilder withChannels(int channels) {
+			this.channels = channels;
+			return this;
+		}
+
+		@Override
+		public SmallFilePush build() {
+			return new SmallFilePush(this);
+		}
+	}
+
+	private final int channels;
+
+	private SmallFilePush(SmallFilePushBuilder builder) {
+		super(builder);
+		this.channels = Math.max(1, builder.channels);
+	}
+
+	@Override
+	protected void pushAll(List<Transfer> transfers) throws Exception {
+		var total = transfers.stream().mapToLong(Transfer::size).sum();
+		var transferred = new AtomicLong();
+		var files = new AtomicLong();
+		var started = System.currentTimeMillis();
+
+		progress.ifPresent(p -> p.started(total, transfers.size() == 1 ? transfers.get(0).remotePath() : transfers.size() + " files"));
+
+		parallel(transfers, chunks, channels, (sftp, transfer) -> {
+			var fileStarted = System.currentTimeMillis();
+			var tracked = stats.file(transfer.remotePath(), transfer.size());
+			try(var in = new CountingInputStream(Files.newInputStream(transfer.file()), transferred, total)) {
+				sftp.put(in, transfer.remotePath());
+			}
+			catch(Exception e) {
+				stats.chunk(transfer.remotePath(), connection(), 0, transfer.size(), fileStarted, Optional.of(e));
+				stats.finished(tracked, Optional.of(e));
+				throw e;
+			}
+			stats.chunk(transfer.remotePath(), connection(), 0, transfer.size(), fileStarted, Optional.empty());
+			stats.finished(tracked, Optional.empty());
+			if(verboseOutput) {
+				message("Sent {0} over connection {1}", transfer.remotePath(), connection());
+			}
+			verify(sftp, transfer.file(), transfer.remotePath());
+			files.incrementAndGet();
+		});
+
+		progress.ifPresent(FileTransferProgress::completed);
+		var seconds = Math.max(1, (System.currentTimeMillis() - started) / 1000);
+		message("Sent {0} files ({1}), {2} files per second", files.get(), IOUtils.toByteSize(total), files.get() / seconds);
+	}
+
+	@Override
+	protected void push(Path file, String remotePath) throws Exception {
+		pushAll(List.of(new Transfer(file, remotePath, Files.size(file))));
+	}
+}
@@ -2,36 +2,152 @@ package com.sshtools.pushsftp.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Reads a range of a file using positional reads on a {@link FileChannel}, so
+ * any number of streams may read different ranges of the same channel at once
+ * without sharing a file pointer. Reads go through direct buffers that are
+ * returned to a shared pool when the stream is closed. If the file is
+ * truncated while it is being read, the stream fails rather than ending early.
+ */
 public class ChunkInputStream extends InputStream {
 
-	RandomAccessFile file;
-	long length;
-	
-	public ChunkInputStream(RandomAccessFile file, long length) {
-		this.file = file;
-		this.length = length;
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static int MAX_POOLED = 32;
+
+	private final static Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+	private final FileChannel channel;
+	private final boolean ownChannel;
+	private long position;
+	private long remaining;
+	private ByteBuffer buffer;
+	private ByteBuffer direct;
+
+	/**
+	 * Read a range of a channel. The channel is not closed when this stream is.
+	 *
+	 * @param channel channel
+	 * @param offset offset of range
+	 * @param length length of range
+	 */
+	public ChunkInputStream(FileChannel channel, long offset, long length) {
+		this(channel, offset, length, false);
+	}
+
+	private ChunkInputStream(FileChannel channel, long offset, long length, boolean ownChannel) {
+		this.channel = channel;
+		this.position = offset;
+		this.remaining = length;
+		this.ownChannel = ownChannel;
+	}
+
+	/**
+	 * Open a file and read a range of it, closing the file when the stream is
+	 * closed.
+	 *
+	 * @param file file
+	 * @param offset offset of range
+	 * @param length length of range
+	 * @return stream
+	 * @throws IOException on error
+	 */
+	public static ChunkInputStream open(Path file, long offset, long length) throws IOException {
+		return new ChunkInputStream(FileChannel.open(file, StandardOpenOption.READ), offset, length, true);
 	}
-	
+
 	@Override
 	public int read() throws IOException {
-		if(length > 0) {
-			length--;
-			return file.read();
+		if(!fill())
+			return -1;
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!fill())
+			return -1;
+		var r = Math.min(len, buffer.remaining());
+		buffer.get(b, off, r);
+		return r;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if(n <= 0)
+			return 0;
+		var buffered = buffer == null ? 0 : buffer.remaining();
+		if(n <= buffered) {
+			buffer.position(buffer.position() + (int)n);
+			return n;
+		}
+		var skipped = buffered + Math.min(n - buffered, remaining);
+		position += skipped - buffered;
+		remaining -= skipped - buffered;
+		buffer = null;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min(Integer.MAX_VALUE, (buffer == null ? 0 : buffer.remaining()) + remaining);
+	}
+
+	@Override
+	public long transferTo(OutputStream out) throws IOException {
+		var total = 0l;
+		var tmp = new byte[BUFFER_SIZE];
+		int r;
+		while((r = read(tmp, 0, tmp.length)) != -1) {
+			out.write(tmp, 0, r);
+			total += r;
 		}
-		return -1;
+		return total;
 	}
-	
+
 	@Override
-	public int read(byte[] b, int off, int len) throws IOException {	
-		if(length > 0) {
-			int max = (int) Math.min(len, length);
-			length-=max;
-			
-			return file.read(b, off, max);
+	public void close() throws IOException {
+		buffer = null;
+		remaining = 0;
+		if(direct != null) {
+			if(POOL.size() < MAX_POOLED)
+				POOL.add(direct);
+			direct = null;
 		}
-		return -1;
+		if(ownChannel)
+			channel.close();
 	}
 
+	private boolean fill() throws IOException {
+		if(buffer != null && buffer.hasRemaining())
+			return true;
+		if(remaining <= 0)
+			return false;
+
+		if(direct == null) {
+			direct = POOL.poll();
+			if(direct == null)
+				direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		direct.clear();
+		if(remaining < direct.capacity())
+			direct.limit((int)remaining);
+		var r = channel.read(direct, position);
+		if(r == -1)
+			throw new IOException(String.format("File ended at %d, %d bytes before the end of the range.", position, remaining));
+		direct.flip();
+		position += r;
+		remaining -= r;
+		buffer = direct;
+		return true;
+	}
 }
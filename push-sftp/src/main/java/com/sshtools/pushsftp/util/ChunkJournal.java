@@ -0,0 +1,198 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A small on-disk record of a chunked upload of a single file. It remembers
+ * the remote path, the size and modification time of the local file, the
+ * boundaries of each chunk and the digest of every chunk that has been
+ * completely sent, so an interrupted transfer can be resumed by only sending
+ * the chunks that are missing.
+ */
+public final class ChunkJournal {
+
+	public final static class Chunk {
+		private final int index;
+		private final long offset;
+		private final long length;
+		private Optional<String> digest = Optional.empty();
+
+		private Chunk(int index, long offset, long length) {
+			this.index = index;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public long offset() {
+			return offset;
+		}
+
+		public long length() {
+			return length;
+		}
+
+		public Optional<String> digest() {
+			return digest;
+		}
+
+		public boolean complete() {
+			return digest.isPresent();
+		}
+	}
+
+	private final Path file;
+	private final String remotePath;
+	private final long size;
+	private final long lastModified;
+	private final String algorithm;
+	private final List<Chunk> chunks;
+
+	private ChunkJournal(Path file, String remotePath, long size, long lastModified, String algorithm, List<Chunk> chunks) {
+		this.file = file;
+		this.remotePath = remotePath;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.algorithm = algorithm;
+		this.chunks = Collections.unmodifiableList(chunks);
+	}
+
+	/**
+	 * Get the journal for a transfer, loading an existing one if it still
+	 * describes the same local file, or starting a new one otherwise.
+	 *
+	 * @param file journal file
+	 * @param remotePath remote path
+	 * @param localFile local file
+	 * @param chunks number of chunks to split a new transfer into
+	 * @param algorithm digest algorithm used for chunk digests
+	 * @return journal
+	 * @throws IOException on error
+	 */
+	public static ChunkJournal open(Path file, String remotePath, Path localFile, int chunks, String algorithm) throws IOException {
+		var size = Files.size(localFile);
+		var lastModified = Files.getLastModifiedTime(localFile).toMillis();
+		if(Files.exists(file)) {
+			var props = new Properties();
+			try(var in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				props.load(in);
+			}
+			try {
+				if(remotePath.equals(props.getProperty("remote")) &&
+				   size == Long.parseLong(props.getProperty("size", "-1")) &&
+				   lastModified == Long.parseLong(props.getProperty("mtime", "-1")) &&
+				   algorithm.equals(props.getProperty("algorithm"))) {
+					var count = Integer.parseInt(props.getProperty("chunks", "0"));
+					var l = new ArrayList<Chunk>(count);
+					for(int i = 0 ; i < count ; i++) {
+						var chunk = new Chunk(i,
+								Long.parseLong(props.getProperty("chunk." + i + ".offset")),
+								Long.parseLong(props.getProperty("chunk." + i + ".length")));
+						chunk.digest = Optional.ofNullable(props.getProperty("chunk." + i + ".digest"));
+						l.add(chunk);
+					}
+					return new ChunkJournal(file, remotePath, size, lastModified, algorithm, l);
+				}
+			}
+			catch(NumberFormatException | NullPointerException e) {
+				/* Corrupt journal, start again */
+			}
+		}
+
+		var count = (int)Math.max(1, Math.min(chunks, size));
+		var chunkLength = size / count;
+		var l = new ArrayList<Chunk>(count);
+		for(int i = 0 ; i < count ; i++) {
+			var offset = i * chunkLength;
+			l.add(new Chunk(i, offset, i == count - 1 ? size - offset : chunkLength));
+		}
+		var journal = new ChunkJournal(file, remotePath, size, lastModified, algorithm, l);
+		journal.save();
+		return journal;
+	}
+
+	public String remotePath() {
+		return remotePath;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public List<Chunk> chunks() {
+		return chunks;
+	}
+
+	/**
+	 * Get whether this journal is resuming a transfer that was previously
+	 * started, i.e. at least one chunk is already complete.
+	 *
+	 * @return resuming
+	 */
+	public boolean resuming() {
+		return chunks.stream().anyMatch(Chunk::complete);
+	}
+
+	public long completedBytes() {
+		return chunks.stream().filter(Chunk::complete).mapToLong(Chunk::length).sum();
+	}
+
+	public synchronized void complete(Chunk chunk, String digest) throws IOException {
+		chunk.digest = Optional.of(digest);
+		save();
+	}
+
+	public synchronized void invalidate(Chunk chunk) throws IOException {
+		chunk.digest = Optional.empty();
+		save();
+	}
+
+	/**
+	 * Forget every completed chunk, so the whole file is sent again.
+	 *
+	 * @throws IOException on error
+	 */
+	public synchronized void reset() throws IOException {
+		for(var chunk : chunks) {
+			chunk.digest = Optional.empty();
+		}
+		save();
+	}
+
+	public synchronized void delete() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private void save() throws IOException {
+		var props = new Properties();
+		props.setProperty("remote", remotePath);
+		props.setProperty("size", String.valueOf(size));
+		props.setProperty("mtime", String.valueOf(lastModified));
+		props.setProperty("algorithm", algorithm);
+		props.setProperty("chunks", String.valueOf(chunks.size()));
+		for(var chunk : chunks) {
+			props.setProperty("chunk." + chunk.index + ".offset", String.valueOf(chunk.offset));
+			props.setProperty("chunk." + chunk.index + ".length", String.valueOf(chunk.length));
+			chunk.digest.ifPresent(d -> props.setProperty("chunk." + chunk.index + ".digest", d));
+		}
+
+		Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			props.store(out, "push-sftp chunk journal");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
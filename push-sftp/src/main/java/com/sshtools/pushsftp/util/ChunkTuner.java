@@ -0,0 +1,215 @@
+package com.sshtools.pushsftp.util;
+
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * Chooses the number of chunks, and whether to multiplex them over a single
+ * connection, for a particular server and direction of transfer. Throughput
+ * of each transfer is recorded and used to climb towards the chunk count
+ * where adding connections stops making things faster. What has been learnt
+ * is stored in user preferences, so later sessions start from the best known
+ * configuration.
+ */
+public final class ChunkTuner {
+
+	public final static int MIN_CHUNKS = 1;
+	public final static int MAX_CHUNKS = 16;
+
+	/**
+	 * Transfers smaller or quicker than this are too noisy to learn from.
+	 */
+	private final static long MIN_SAMPLE_BYTES = 4 * 1024 * 1024;
+	private final static long MIN_SAMPLE_MS = 1000;
+
+	/**
+	 * A new configuration must be this much better to replace the best one.
+	 */
+	private final static double IMPROVEMENT = 1.05;
+
+	/**
+	 * If a settled configuration falls below this fraction of the best rate,
+	 * conditions have changed and tuning starts again.
+	 */
+	private final static double DEGRADED = 0.7;
+
+	/**
+	 * Wraps another {@link FileTransferProgress}, counting the bytes transferred
+	 * over any number of files.
+	 */
+	public final static class Measurement implements FileTransferProgress {
+		private final FileTransferProgress delegate;
+		private long bytes;
+		private long current;
+
+		private Measurement(FileTransferProgress delegate) {
+			this.delegate = delegate;
+		}
+
+		public synchronized long bytes() {
+			return bytes;
+		}
+
+		@Override
+		public void started(long bytesTotal, String file) {
+			synchronized(this) {
+				current = 0;
+			}
+			delegate.started(bytesTotal, file);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return delegate.isCancelled();
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			synchronized(this) {
+				if(bytesSoFar > current) {
+					bytes += bytesSoFar - current;
+					current = bytesSoFar;
+				}
+			}
+			delegate.progressed(bytesSoFar);
+		}
+
+		@Override
+		public void completed() {
+			delegate.completed();
+		}
+	}
+
+	private final Preferences node;
+	private final boolean exploreMultiplex;
+
+	private int chunks;
+	private boolean multiplex;
+	private int bestChunks;
+	private boolean bestMultiplex;
+	private double bestRate;
+	private int direction;
+	private boolean multiplexTried;
+	private boolean settled;
+
+	private ChunkTuner(Preferences node, boolean exploreMultiplex) {
+		this.node = node;
+		this.exploreMultiplex = exploreMultiplex;
+
+		chunks = node.getInt("chunks", 2);
+		multiplex = exploreMultiplex && node.getBoolean("multiplex", false);
+		bestChunks = node.getInt("bestChunks", chunks);
+		bestMultiplex = exploreMultiplex && node.getBoolean("bestMultiplex", multiplex);
+		bestRate = node.getDouble("bestRate", 0);
+		direction = node.getInt("direction", 1);
+		multiplexTried = !exploreMultiplex || node.getBoolean("multiplexTried", false);
+		settled = node.getBoolean("settled", false);
+	}
+
+	/**
+	 * Get the tuner for a target, e.g. <code>user@host:22/push</code>.
+	 *
+	 * @param target target
+	 * @param exploreMultiplex whether to try multiplexed connections as well as separate ones
+	 * @return tuner
+	 */
+	public static ChunkTuner forTarget(String target, boolean exploreMultiplex) {
+		var key = Integer.toHexString(target.hashCode());
+		return new ChunkTuner(Preferences.userNodeForPackage(ChunkTuner.class).node("tuning").node(key), exploreMultiplex);
+	}
+
+	public int chunks() {
+		return chunks;
+	}
+
+	public boolean multiplex() {
+		return multiplex;
+	}
+
+	public Measurement measure(FileTransferProgress progress) {
+		return new Measurement(progress);
+	}
+
+	/**
+	 * Record the result of a transfer made using the current {@link #chunks()} and
+	 * {@link #multiplex()}, and choose the configuration for the next transfer.
+	 *
+	 * @param bytes bytes transferred
+	 * @param millis time taken
+	 */
+	public void record(long bytes, long millis) {
+		if(bytes < MIN_SAMPLE_BYTES || millis < MIN_SAMPLE_MS)
+			return;
+
+		var rate = (double)bytes / (double)millis;
+		if(settled) {
+			if(rate < bestRate * DEGRADED) {
+				/* Link or server conditions have changed, explore again from here */
+				bestRate = rate;
+				direction = 1;
+				multiplexTried = !exploreMultiplex;
+				settled = false;
+				step(chunks + direction);
+			}
+			else {
+				bestRate = Math.max(bestRate, rate);
+			}
+		}
+		else if(rate > bestRate * IMPROVEMENT) {
+			bestRate = rate;
+			bestChunks = chunks;
+			bestMultiplex = multiplex;
+			step(chunks + direction);
+		}
+		else {
+			/* No better, return to the best and try another direction */
+			chunks = bestChunks;
+			multiplex = bestMultiplex;
+			if(direction > 0 && bestChunks > MIN_CHUNKS) {
+				direction = -1;
+				step(bestChunks - 1);
+			}
+			else if(!multiplexTried) {
+				multiplexTried = true;
+				multiplex = !bestMultiplex;
+			}
+			else {
+				settled = true;
+			}
+		}
+		save();
+	}
+
+	private void step(int next) {
+		if(next < MIN_CHUNKS || next > MAX_CHUNKS) {
+			if(!multiplexTried) {
+				multiplexTried = true;
+				multiplex = !bestMultiplex;
+			}
+			else {
+				settled = true;
+			}
+		}
+		else {
+			chunks = next;
+		}
+	}
+
+	private void save() {
+		node.putInt("chunks", chunks);
+		node.putBoolean("multiplex", multiplex);
+		node.putInt("bestChunks", bestChunks);
+		node.putBoolean("bestMultiplex", bestMultiplex);
+		node.putDouble("bestRate", bestRate);
+		node.putInt("direction", direction);
+		node.putBoolean("multiplexTried", multiplexTried);
+		node.putBoolean("settled", settled);
+		try {
+			node.flush();
+		} catch (BackingStoreException e) {
+			/* Only loses what was learnt */
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Guesses whether a file is worth compressing on the wire, so a transfer can
+ * choose connections with or without compression for it. Files with the
+ * extension of an already compressed format never are. Otherwise, a few
+ * small samples are read from the start, middle and end of the file, and the
+ * file is only compressed if their byte entropy shows enough redundancy for
+ * zlib to pay for the CPU it costs. Remote files are judged by their name
+ * alone, as sampling them would cost several round trips each before any of
+ * them could be transferred.
+ */
+public final class Compressibility {
+
+	private final static int SAMPLE_SIZE = 16 * 1024;
+
+	/**
+	 * Files smaller than this are not worth sampling, or compressing.
+	 */
+	private final static long MIN_SIZE = 64 * 1024;
+
+	/**
+	 * Samples with more bits of entropy per byte than this are assumed to be
+	 * compressed or encrypted already. Text is typically 4.5 to 5.5, and the
+	 * output of zlib or zstd very close to 8.
+	 */
+	private final static double MAX_ENTROPY = 7.0;
+
+	private final static Set<String> COMPRESSED = Set.of(
+			"gz", "tgz", "bz2", "tbz2", "xz", "txz", "zst", "lz4", "lzma", "z", "zip", "7z", "rar", "jar", "war",
+			"apk", "deb", "rpm", "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "m4a", "aac", "ogg", "opus",
+			"flac", "mp4", "m4v", "mkv", "mov", "avi", "webm", "docx", "xlsx", "pptx", "odt", "ods", "pdf", "gpg");
+
+	private Compressibility() {
+	}
+
+	/**
+	 * Get whether a local file is worth compressing.
+	 *
+	 * @param file file
+	 * @return compressible
+	 * @throws IOException on error
+	 */
+	public static boolean isCompressible(Path file) throws IOException {
+		if(!Files.isRegularFile(file) || isCompressedName(file.getFileName().toString()))
+			return false;
+		var size = Files.size(file);
+		if(size < MIN_SIZE)
+			return false;
+		var counts = new long[256];
+		var buf = ByteBuffer.allocate(SAMPLE_SIZE);
+		try(var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for(var offset : offsets(size)) {
+				buf.clear();
+				while(buf.hasRemaining() && channel.read(buf, offset + buf.position()) > 0);
+				count(counts, buf.array(), buf.position());
+			}
+		}
+		return entropy(counts) <= MAX_ENTROPY;
+	}
+
+	/**
+	 * Get whether a remote file is worth compressing, judged by its name.
+	 *
+	 * @param path remote path
+	 * @return compressible
+	 */
+	public static boolean isCompressible(String path) {
+		return !isCompressedName(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	/**
+	 * Get the Shannon entropy of some bytes, in bits per byte, from 0 for
+	 * bytes that are all the same to 8 for random bytes.
+	 *
+	 * @param buf buffer
+	 * @param len number of bytes
+	 * @return entropy
+	 */
+	public static double entropy(byte[] buf, int len) {
+		var counts = new long[256];
+		count(counts, buf, len);
+		return entropy(counts);
+	}
+
+	static boolean isCompressedName(String name) {
+		var idx = name.lastIndexOf('.');
+		return idx != -1 && COMPRESSED.contains(name.substring(idx + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private static long[] offsets(long size) {
+		if(size <= SAMPLE_SIZE * 3)
+			return new long[] { 0 };
+		return new long[] { 0, size / 2 - SAMPLE_SIZE / 2, size - SAMPLE_SIZE };
+	}
+
+	private static void count(long[] counts, byte[] buf, int len) {
+		for(int i = 0 ; i < len; i++)
+			counts[buf[i] & 0xff]++;
+	}
+
+	private static double entropy(long[] counts) {
+		var total = 0l;
+		for(var c : counts)
+			total += c;
+		if(total == 0)
+			return 0;
+		var entropy = 0d;
+		for(var c : counts) {
+			if(c > 0) {
+				var p = (double)c / total;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2);
+	}
+}
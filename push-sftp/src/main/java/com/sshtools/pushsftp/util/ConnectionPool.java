@@ -0,0 +1,138 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * A pool of already authenticated connections to the same server, used for
+ * the additional connections of chunked transfers. Connections that are
+ * returned are kept for a while so the next transfer can borrow them without
+ * connecting, exchanging keys and authenticating again.
+ */
+public final class ConnectionPool implements Closeable {
+
+	@FunctionalInterface
+	public interface Connector {
+		SshClient connect(boolean first) throws IOException, SshException;
+	}
+
+	private final static class Idle {
+		private final SshClient client;
+		private final long since;
+
+		private Idle(SshClient client) {
+			this.client = client;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	private final Connector connector;
+	private final long idleTimeout;
+	private final int maxIdle;
+	private final Deque<Idle> idle = new ArrayDeque<>();
+	private final ScheduledExecutorService reaper;
+
+	private boolean connected;
+	private boolean closed;
+
+	public ConnectionPool(Connector connector, Duration idleTimeout, int maxIdle) {
+		this.connector = connector;
+		this.idleTimeout = idleTimeout.toMillis();
+		this.maxIdle = maxIdle;
+
+		reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+			var t = new Thread(r, "ConnectionPoolReaper");
+			t.setDaemon(true);
+			return t;
+		});
+		var interval = Math.max(1000, Math.min(this.idleTimeout / 2, 30000));
+		reaper.scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrow a healthy connection, either one that is idle in the pool or a new
+	 * one.
+	 *
+	 * @return connection
+	 * @throws IOException on error
+	 * @throws SshException on error
+	 */
+	public SshClient borrow() throws IOException, SshException {
+		boolean first;
+		synchronized(idle) {
+			if(closed)
+				throw new IOException("Connection pool is closed.");
+			Idle next;
+			while((next = idle.pollFirst()) != null) {
+				if(healthy(next.client))
+					return next.client;
+				else
+					next.client.disconnect();
+			}
+			first = !connected;
+			connected = true;
+		}
+		return connector.connect(first);
+	}
+
+	/**
+	 * Return a connection to the pool. If it is no longer healthy, or the pool
+	 * is full or closed, it is disconnected instead.
+	 *
+	 * @param client connection
+	 */
+	public void release(SshClient client) {
+		synchronized(idle) {
+			if(!closed && idle.size() < maxIdle && healthy(client)) {
+				idle.addFirst(new Idle(client));
+				return;
+			}
+		}
+		if(client.isConnected())
+			client.disconnect();
+	}
+
+	public int idle() {
+		synchronized(idle) {
+			return idle.size();
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized(idle) {
+			closed = true;
+			for(var i : idle) {
+				i.client.disconnect();
+			}
+			idle.clear();
+		}
+		reaper.shutdownNow();
+	}
+
+	private void reap() {
+		var now = System.currentTimeMillis();
+		synchronized(idle) {
+			for(var it = idle.iterator(); it.hasNext(); ) {
+				var i = it.next();
+				if(now - i.since > idleTimeout || !healthy(i.client)) {
+					it.remove();
+					i.client.disconnect();
+				}
+			}
+		}
+	}
+
+	private static boolean healthy(SshClient client) {
+		return client.isConnected() && client.isAuthenticated();
+	}
+}
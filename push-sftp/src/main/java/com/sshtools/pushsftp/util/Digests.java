@@ -0,0 +1,30 @@
+package com.sshtools.pushsftp.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import com.sshtools.client.sftp.RemoteHash;
+
+public final class Digests {
+
+	private Digests() {
+	}
+
+	public static String algorithm(RemoteHash hash) {
+		var name = hash.name().toUpperCase();
+		return name.startsWith("SHA") ? "SHA-" + name.substring(3) : name;
+	}
+
+	public static MessageDigest create(RemoteHash hash) {
+		try {
+			return MessageDigest.getInstance(algorithm(hash));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported digest " + hash, e);
+		}
+	}
+
+	public static String hex(byte[] digest) {
+		return HexFormat.of().formatHex(digest);
+	}
+}
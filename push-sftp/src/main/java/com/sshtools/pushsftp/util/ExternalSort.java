@@ -0,0 +1,196 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts any number of strings by a key, holding no more than a limited amount
+ * of them in memory. Once the limit is reached, what is held is sorted and
+ * written to a temporary file as a run, and the runs are merged as the sorted
+ * values are read back. Temporary files are deleted when closed.
+ */
+public final class ExternalSort implements Closeable {
+
+	/**
+	 * The default amount of memory held before spilling to disk.
+	 */
+	public final static long DEFAULT_MEMORY = 32 * 1024 * 1024;
+
+	/**
+	 * Rough number of bytes used by each record besides its characters.
+	 */
+	private final static int RECORD_OVERHEAD = 96;
+
+	private final static class Record {
+		private final String key;
+		private final String value;
+
+		private Record(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final static class Run implements Closeable {
+		private final DataInputStream in;
+		private Record head;
+
+		private Run(Path file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+			advance();
+		}
+
+		private void advance() throws IOException {
+			head = in.readBoolean() ? new Record(in.readUTF(), in.readUTF()) : null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private final static Comparator<Record> ORDER = Comparator.comparing((Record r) -> r.key).thenComparing(r -> r.value);
+
+	private final long memory;
+	private final List<Record> held = new ArrayList<>();
+	private final List<Path> runs = new ArrayList<>();
+	private final List<Run> open = new ArrayList<>();
+	private long size;
+	private long count;
+
+	public ExternalSort() {
+		this(DEFAULT_MEMORY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param memory approximate bytes to hold before spilling to disk
+	 */
+	public ExternalSort(long memory) {
+		this.memory = memory;
+	}
+
+	/**
+	 * Add a value.
+	 *
+	 * @param key key to sort by
+	 * @param value value
+	 * @throws IOException if a run cannot be written
+	 */
+	public void add(String key, String value) throws IOException {
+		held.add(new Record(key, value));
+		count++;
+		size += (key.length() + value.length()) * 2 + RECORD_OVERHEAD;
+		if(size >= memory)
+			spill();
+	}
+
+	/**
+	 * Get the number of values added.
+	 *
+	 * @return count
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * Get the number of runs written to disk so far.
+	 *
+	 * @return runs
+	 */
+	public int runs() {
+		return runs.size();
+	}
+
+	/**
+	 * Get the values in order of their keys. This may only be called once,
+	 * after all values have been added.
+	 *
+	 * @return values
+	 * @throws IOException if runs cannot be read
+	 */
+	public Iterator<String> values() throws IOException {
+		if(runs.isEmpty()) {
+			held.sort(ORDER);
+			return held.stream().map(r -> r.value).iterator();
+		}
+
+		if(!held.isEmpty())
+			spill();
+		var queue = new PriorityQueue<Run>(Math.max(1, runs.size()), (r1, r2) -> ORDER.compare(r1.head, r2.head));
+		for(var file : runs) {
+			var run = new Run(file);
+			open.add(run);
+			if(run.head != null)
+				queue.add(run);
+		}
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !queue.isEmpty();
+			}
+
+			@Override
+			public String next() {
+				var run = queue.poll();
+				if(run == null)
+					throw new NoSuchElementException();
+				var value = run.head.value;
+				try {
+					run.advance();
+				}
+				catch(IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+				if(run.head != null)
+					queue.add(run);
+				return value;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(var run : open) {
+			run.close();
+		}
+		open.clear();
+		for(var file : runs) {
+			Files.deleteIfExists(file);
+		}
+		runs.clear();
+		held.clear();
+	}
+
+	private void spill() throws IOException {
+		held.sort(ORDER);
+		var file = Files.createTempFile("push-sftp-sort", ".run");
+		runs.add(file);
+		try(var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+			for(var record : held) {
+				out.writeBoolean(true);
+				out.writeUTF(record.key);
+				out.writeUTF(record.value);
+			}
+			out.writeBoolean(false);
+		}
+		held.clear();
+		size = 0;
+	}
+}
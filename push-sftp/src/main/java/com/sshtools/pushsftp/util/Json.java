@@ -0,0 +1,79 @@
+package com.sshtools.pushsftp.util;
+
+import java.util.Map;
+
+/**
+ * Just enough JSON to write flat and nested objects of strings, numbers and
+ * booleans, without a library.
+ */
+public final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Write an object. Values may be strings, numbers, booleans,
+	 * <code>null</code> or further maps. Anything else is written as its string
+	 * value.
+	 *
+	 * @param json buffer to write to
+	 * @param values object
+	 * @return buffer
+	 */
+	public static StringBuilder object(StringBuilder json, Map<String, ?> values) {
+		json.append('{');
+		var first = true;
+		for(var en : values.entrySet()) {
+			if(!first)
+				json.append(',');
+			first = false;
+			quote(json, en.getKey());
+			json.append(':');
+			value(json, en.getValue());
+		}
+		return json.append('}');
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void value(StringBuilder json, Object value) {
+		if(value instanceof Number || value instanceof Boolean)
+			json.append(value);
+		else if(value == null)
+			json.append("null");
+		else if(value instanceof Map)
+			object(json, (Map<String, ?>)value);
+		else
+			quote(json, value.toString());
+	}
+
+	public static void quote(StringBuilder json, String str) {
+		json.append('"');
+		for(var i = 0 ; i < str.length(); i++) {
+			var ch = str.charAt(i);
+			switch(ch) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if(ch < 0x20)
+					json.append(String.format("\\u%04x", (int)ch));
+				else
+					json.append(ch);
+				break;
+			}
+		}
+		json.append('"');
+	}
+}
@@ -0,0 +1,219 @@
+package com.sshtools.pushsftp.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+
+/**
+ * A per-session cache of remote directory listings and file attributes, so
+ * completion, <code>ls</code>, <code>cd</code> and pattern expansion do not
+ * list the same directories again and again. Entries expire after a time to
+ * live, and commands that change the remote file system invalidate what they
+ * touch so the cache never hides their own changes. Expired entries are
+ * swept out at most once per time to live, and very large directories are
+ * never cached. Paths are absolute.
+ */
+public final class ListingCache {
+
+	private final static class Entry<T> {
+		private final T value;
+		private final long expires;
+
+		private Entry(T value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Listings are only cached if they have no more entries than this.
+	 */
+	private final static int MAX_CACHED_ENTRIES = 10000;
+
+	private final long ttl;
+	private final Metrics metrics;
+	private final Map<String, Entry<List<SftpFile>>> listings = new ConcurrentHashMap<>();
+	private final Map<String, Entry<SftpFile>> files = new ConcurrentHashMap<>();
+	private final AtomicLong nextSweep = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param ttl how long entries are kept, nothing is cached if zero
+	 * @param metrics metrics to record the requests that are made in
+	 */
+	public ListingCache(Duration ttl, Metrics metrics) {
+		this.ttl = ttl.toMillis();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * List a directory, returning the cached listing if there is one.
+	 *
+	 * @param sftp client to list with if not cached
+	 * @param dir absolute path of directory
+	 * @return files
+	 * @throws Exception on error
+	 */
+	public List<SftpFile> list(SftpClient sftp, String dir) throws Exception {
+		dir = normalize(dir);
+		var now = System.currentTimeMillis();
+		var entry = listings.get(dir);
+		if(entry != null && entry.expires > now)
+			return entry.value;
+		sweep(now);
+
+		var l = new ArrayList<SftpFile>();
+		var started = System.nanoTime();
+		for(var it = sftp.lsIterator(dir); it.hasNext(); ) {
+			l.add(it.next());
+		}
+		metrics.histogram(Metrics.READDIR).recordSince(started);
+		var value = Collections.unmodifiableList(l);
+		if(ttl > 0 && l.size() <= MAX_CACHED_ENTRIES) {
+			for(var file : l) {
+				var name = file.getFilename();
+				if(!name.equals(".") && !name.equals(".."))
+					files.put(join(dir, name), new Entry<>(file, now + ttl));
+			}
+			listings.put(dir, new Entry<>(value, now + ttl));
+		}
+		return value;
+	}
+
+	/**
+	 * Iterate over a directory, returning the cached listing if there is one.
+	 * Otherwise entries are returned as they are read, rather than once the
+	 * whole directory has been, and the listing is only cached if it turns out
+	 * to be small, so very large directories are never held in memory.
+	 *
+	 * @param sftp client to list with if not cached
+	 * @param dir absolute path of directory
+	 * @return files
+	 * @throws Exception on error
+	 */
+	public Iterator<SftpFile> iterate(SftpClient sftp, String dir) throws Exception {
+		var normalized = normalize(dir);
+		var now = System.currentTimeMillis();
+		var entry = listings.get(normalized);
+		if(entry != null && entry.expires > now)
+			return entry.value.iterator();
+		sweep(now);
+
+		var started = System.nanoTime();
+		var it = sftp.lsIterator(normalized);
+		return new Iterator<>() {
+			private List<SftpFile> l = ttl > 0 ? new ArrayList<>() : null;
+			private boolean done;
+
+			@Override
+			public boolean hasNext() {
+				if(it.hasNext())
+					return true;
+				if(!done) {
+					done = true;
+					metrics.histogram(Metrics.READDIR).recordSince(started);
+					if(l != null)
+						listings.put(normalized, new Entry<>(Collections.unmodifiableList(l), now + ttl));
+				}
+				return false;
+			}
+
+			@Override
+			public SftpFile next() {
+				var file = it.next();
+				if(l != null) {
+					if(l.size() < MAX_CACHED_ENTRIES) {
+						l.add(file);
+						var name = file.getFilename();
+						if(!name.equals(".") && !name.equals(".."))
+							files.put(join(normalized, name), new Entry<>(file, now + ttl));
+					}
+					else
+						l = null;
+				}
+				return file;
+			}
+		};
+	}
+
+	/**
+	 * Get a file and its attributes, returning the cached file if there is one.
+	 * Directory listings also fill this cache, so a file in a recently listed
+	 * directory is found without a round trip.
+	 *
+	 * @param sftp client to stat with if not cached
+	 * @param path absolute path of file
+	 * @return file
+	 * @throws Exception on error, including if the file does not exist
+	 */
+	public SftpFile getFile(SftpClient sftp, String path) throws Exception {
+		path = normalize(path);
+		var now = System.currentTimeMillis();
+		var entry = files.get(path);
+		if(entry != null && entry.expires > now)
+			return entry.value;
+		sweep(now);
+
+		var started = System.nanoTime();
+		var file = sftp.getSubsystemChannel().getFile(path);
+		metrics.histogram(Metrics.STAT).recordSince(started);
+		if(ttl > 0)
+			files.put(path, new Entry<>(file, System.currentTimeMillis() + ttl));
+		return file;
+	}
+
+	/**
+	 * Forget a path, the listing of its parent directory and, if it is a
+	 * directory, everything below it.
+	 *
+	 * @param path absolute path
+	 */
+	public void invalidate(String path) {
+		var normalized = normalize(path);
+		var below = normalized.equals("/") ? "/" : normalized + "/";
+		listings.keySet().removeIf(k -> k.equals(normalized) || k.startsWith(below));
+		files.keySet().removeIf(k -> k.equals(normalized) || k.startsWith(below));
+
+		var idx = normalized.lastIndexOf('/');
+		if(idx != -1) {
+			var parent = idx == 0 ? "/" : normalized.substring(0, idx);
+			listings.remove(parent);
+		}
+	}
+
+	public void clear() {
+		listings.clear();
+		files.clear();
+	}
+
+	/**
+	 * Remove every expired entry, if it is at least a time to live since this
+	 * was last done, so entries that are never read again do not stay forever.
+	 */
+	private void sweep(long now) {
+		var next = nextSweep.get();
+		if(ttl == 0 || now < next || !nextSweep.compareAndSet(next, now + ttl))
+			return;
+		listings.values().removeIf(e -> e.expires <= now);
+		files.values().removeIf(e -> e.expires <= now);
+	}
+
+	private static String normalize(String path) {
+		while(path.length() > 1 && path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		return path;
+	}
+
+	private static String join(String folder, String name) {
+		return folder.endsWith("/") ? folder + name : folder + "/" + name;
+	}
+}
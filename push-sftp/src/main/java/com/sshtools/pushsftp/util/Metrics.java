@@ -0,0 +1,212 @@
+package com.sshtools.pushsftp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of counters, gauges and latency histograms for one session.
+ * Updates are lock free, so they may be made from any number of transfer
+ * threads at once. Names are dotted, e.g. <code>sftp.readdir</code>.
+ */
+public final class Metrics {
+
+	/**
+	 * Latencies of SFTP requests made by push-sftp itself, rather than inside
+	 * Maverick's own transfer tasks.
+	 */
+	public final static String READDIR = "sftp.readdir";
+	public final static String STAT = "sftp.stat";
+
+	/**
+	 * Time to open each additional connection, including key exchange and
+	 * authentication.
+	 */
+	public final static String CONNECT = "ssh.connect";
+
+	/**
+	 * Time taken by each file transferred, and by each range of a file (or
+	 * small file) sent over one of several connections.
+	 */
+	public final static String FILE = "transfer.file";
+	public final static String CHUNK = "transfer.chunk";
+
+	public final static String BYTES_READ = "transfer.bytes.read";
+	public final static String BYTES_WRITTEN = "transfer.bytes.written";
+	public final static String BYTES_IN_FLIGHT = "transfer.bytes.inFlight";
+
+	public final static class Counter {
+		private final LongAdder value = new LongAdder();
+
+		public void add(long amount) {
+			value.add(amount);
+		}
+
+		public void increment() {
+			value.increment();
+		}
+
+		public long get() {
+			return value.sum();
+		}
+	}
+
+	public final static class Gauge {
+		private final AtomicLong value = new AtomicLong();
+
+		public void add(long amount) {
+			value.addAndGet(amount);
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * A histogram of latencies in microseconds, with a bucket for each power of
+	 * two. Percentiles are the upper bound of the bucket they fall in.
+	 */
+	public final static class Histogram {
+		private final static int BUCKETS = 40;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		private Histogram() {
+			for(int i = 0 ; i < BUCKETS; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * Record the time since a start time from {@link System#nanoTime()}.
+		 *
+		 * @param startNanos start
+		 */
+		public void recordSince(long startNanos) {
+			record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		/**
+		 * Record a latency.
+		 *
+		 * @param micros microseconds
+		 */
+		public void record(long micros) {
+			micros = Math.max(0, micros);
+			buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+			count.increment();
+			sum.add(micros);
+			max.accumulateAndGet(micros, Math::max);
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public long mean() {
+			var c = count.sum();
+			return c == 0 ? 0 : sum.sum() / c;
+		}
+
+		public long max() {
+			return max.get();
+		}
+
+		/**
+		 * Get an approximate percentile.
+		 *
+		 * @param percentile percentile, e.g. 99
+		 * @return microseconds
+		 */
+		public long percentile(double percentile) {
+			var c = count.sum();
+			if(c == 0)
+				return 0;
+			var rank = (long)Math.ceil(c * percentile / 100d);
+			var seen = 0l;
+			for(int i = 0 ; i < BUCKETS; i++) {
+				seen += buckets[i].sum();
+				if(seen >= rank)
+					return Math.min(max.get(), i == 0 ? 0 : (1l << i) - 1);
+			}
+			return max.get();
+		}
+	}
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private final long started = System.currentTimeMillis();
+
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, k -> new Counter());
+	}
+
+	public Gauge gauge(String name) {
+		return gauges.computeIfAbsent(name, k -> new Gauge());
+	}
+
+	public Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, k -> new Histogram());
+	}
+
+	/**
+	 * Record bytes sent over a connection, and how long it took, so the
+	 * throughput of each connection can be worked out.
+	 *
+	 * @param connection connection index, 0 being the session's own
+	 * @param bytes bytes
+	 * @param millis time taken
+	 */
+	public void connection(int connection, long bytes, long millis) {
+		counter("connection." + connection + ".bytes").add(bytes);
+		counter("connection." + connection + ".millis").add(millis);
+	}
+
+	public Map<String, Long> counters() {
+		var m = new TreeMap<String, Long>();
+		counters.forEach((k, v) -> m.put(k, v.get()));
+		return m;
+	}
+
+	public Map<String, Long> gauges() {
+		var m = new TreeMap<String, Long>();
+		gauges.forEach((k, v) -> m.put(k, v.get()));
+		return m;
+	}
+
+	public Map<String, Histogram> histograms() {
+		return new TreeMap<>(histograms);
+	}
+
+	/**
+	 * Get the whole registry as JSON.
+	 *
+	 * @return JSON
+	 */
+	public String toJson() {
+		var root = new LinkedHashMap<String, Object>();
+		root.put("uptimeMs", System.currentTimeMillis() - started);
+		root.put("counters", counters());
+		root.put("gauges", gauges());
+		var h = new TreeMap<String, Object>();
+		histograms().forEach((k, v) -> {
+			var m = new LinkedHashMap<String, Object>();
+			m.put("count", v.count());
+			m.put("meanUs", v.mean());
+			m.put("p50Us", v.percentile(50));
+			m.put("p90Us", v.percentile(90));
+			m.put("p99Us", v.percentile(99));
+			m.put("maxUs", v.max());
+			h.put(k, m);
+		});
+		root.put("histograms", h);
+		return Json.object(new StringBuilder(), root).toString();
+	}
+}
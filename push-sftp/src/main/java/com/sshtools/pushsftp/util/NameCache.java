@@ -0,0 +1,128 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+
+/**
+ * A per-session cache of the remote user and group databases, used to turn
+ * user and group names into ids. The first lookup reads
+ * <code>/etc/passwd</code> and <code>/etc/group</code> over SFTP or, if they
+ * cannot be read, runs a single <code>getent</code> command, after which names
+ * are resolved locally. Names that are still not found, such as those of
+ * directory users that are not enumerated, are looked up individually with
+ * <code>getent</code> once, whether they exist or not.
+ */
+public final class NameCache {
+
+	/**
+	 * Fields in a passwd line, and in a group line.
+	 */
+	private final static int PASSWD_FIELDS = 7;
+	private final static int GROUP_FIELDS = 4;
+
+	private final Map<String, Optional<Integer>> users = new ConcurrentHashMap<>();
+	private final Map<String, Optional<Integer>> groups = new ConcurrentHashMap<>();
+	private volatile boolean loaded;
+
+	/**
+	 * Get the id of a user. Numeric names are returned as they are.
+	 *
+	 * @param ssh connection to run commands on if needed
+	 * @param sftp client to read files with if needed
+	 * @param name user name or id
+	 * @return uid
+	 * @throws IOException if the user does not exist or cannot be looked up
+	 */
+	public int uid(SshClient ssh, SftpClient sftp, String name) throws IOException {
+		return resolve(ssh, sftp, name, users, "passwd", PASSWD_FIELDS)
+				.orElseThrow(() -> new IOException(String.format("Unknown user '%s'.", name)));
+	}
+
+	/**
+	 * Get the id of a group. Numeric names are returned as they are.
+	 *
+	 * @param ssh connection to run commands on if needed
+	 * @param sftp client to read files with if needed
+	 * @param name group name or id
+	 * @return gid
+	 * @throws IOException if the group does not exist or cannot be looked up
+	 */
+	public int gid(SshClient ssh, SftpClient sftp, String name) throws IOException {
+		return resolve(ssh, sftp, name, groups, "group", GROUP_FIELDS)
+				.orElseThrow(() -> new IOException(String.format("Unknown group '%s'.", name)));
+	}
+
+	/**
+	 * Forget everything, so the databases are read again on the next lookup.
+	 */
+	public void clear() {
+		loaded = false;
+		users.clear();
+		groups.clear();
+	}
+
+	private Optional<Integer> resolve(SshClient ssh, SftpClient sftp, String name, Map<String, Optional<Integer>> map, String database, int fields) throws IOException {
+		if(name.matches("\\d+"))
+			return Optional.of(Integer.parseInt(name));
+		load(ssh, sftp);
+		var id = map.get(name);
+		if(id == null) {
+			id = Optional.empty();
+			var output = ssh.executeCommand(String.format("getent %s '%s'", database, name.replace("'", "'\\''")));
+			for(var line : output.split("\n")) {
+				var entry = parse(line, fields);
+				if(entry.isPresent() && entry.get().getKey().equals(name)) {
+					id = Optional.of(entry.get().getValue());
+					break;
+				}
+			}
+			map.put(name, id);
+		}
+		return id;
+	}
+
+	private synchronized void load(SshClient ssh, SftpClient sftp) throws IOException {
+		if(loaded)
+			return;
+		try {
+			add(read(sftp, "/etc/passwd"));
+			add(read(sftp, "/etc/group"));
+		}
+		catch(Exception e) {
+			add(ssh.executeCommand("getent passwd; getent group"));
+		}
+		loaded = true;
+	}
+
+	private void add(String content) {
+		for(var line : content.split("\n")) {
+			parse(line, PASSWD_FIELDS).ifPresent(e -> users.putIfAbsent(e.getKey(), Optional.of(e.getValue())));
+			parse(line, GROUP_FIELDS).ifPresent(e -> groups.putIfAbsent(e.getKey(), Optional.of(e.getValue())));
+		}
+	}
+
+	private static Optional<Map.Entry<String, Integer>> parse(String line, int fields) {
+		var parts = line.trim().split(":", -1);
+		if(parts.length != fields || parts[0].isEmpty())
+			return Optional.empty();
+		try {
+			return Optional.of(Map.entry(parts[0], Integer.parseInt(parts[2])));
+		}
+		catch(NumberFormatException nfe) {
+			return Optional.empty();
+		}
+	}
+
+	private static String read(SftpClient sftp, String path) throws Exception {
+		try(InputStream in = sftp.getInputStream(path)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
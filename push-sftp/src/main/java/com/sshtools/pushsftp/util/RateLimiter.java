@@ -0,0 +1,197 @@
+package com.sshtools.pushsftp.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.util.IOUtils;
+
+/**
+ * A token bucket that limits the combined rate of every transfer it is shared
+ * by, whichever chunk, connection or job they run on. Each block transferred
+ * takes its size in tokens, waiting for the bucket to refill if it is in
+ * debt, so waits are spread over all transfers in the order they asked. The
+ * rate may be changed at any time and applies to transfers already running.
+ * When no rate is set, taking tokens costs a single volatile read.
+ */
+public final class RateLimiter {
+
+	/**
+	 * The smallest burst allowed, so that a single block never has to wait on
+	 * its own at low rates.
+	 */
+	private final static long MIN_BURST = 64 * 1024;
+
+	/**
+	 * Fraction of a second's worth of tokens that may be saved up while idle.
+	 */
+	private final static double BURST_SECONDS = 0.1;
+
+	private volatile long rate;
+	private double tokens;
+	private double burst;
+	private long last = System.nanoTime();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rate bytes per second, or zero for no limit
+	 */
+	public RateLimiter(long rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Parse a rate such as <code>500K</code>, <code>10M</code> or
+	 * <code>1.5MB/s</code>. Suffixes are powers of 1024. <code>0</code>,
+	 * <code>off</code> and <code>none</code> mean no limit.
+	 *
+	 * @param rate rate
+	 * @return bytes per second
+	 */
+	public static long parse(String rate) {
+		var str = rate.trim().toLowerCase(Locale.ROOT);
+		if(str.equals("off") || str.equals("none"))
+			return 0;
+		if(str.endsWith("/s"))
+			str = str.substring(0, str.length() - 2);
+		if(str.endsWith("b"))
+			str = str.substring(0, str.length() - 1);
+		var multiplier = 1l;
+		if(!str.isEmpty()) {
+			switch(str.charAt(str.length() - 1)) {
+			case 'k':
+				multiplier = 1024;
+				break;
+			case 'm':
+				multiplier = 1024 * 1024;
+				break;
+			case 'g':
+				multiplier = 1024 * 1024 * 1024;
+				break;
+			default:
+				break;
+			}
+			if(multiplier > 1)
+				str = str.substring(0, str.length() - 1);
+		}
+		try {
+			var val = Double.parseDouble(str.trim());
+			if(val < 0)
+				throw new NumberFormatException();
+			return (long)(val * multiplier);
+		}
+		catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException(String.format("Invalid rate '%s'. Use a number of bytes per second, optionally followed by K, M or G, or 'off'.", rate));
+		}
+	}
+
+	/**
+	 * Format a rate for display.
+	 *
+	 * @param rate bytes per second
+	 * @return formatted rate
+	 */
+	public static String format(long rate) {
+		return rate <= 0 ? "unlimited" : IOUtils.toByteSize(rate) + "/s";
+	}
+
+	public long getRate() {
+		return rate;
+	}
+
+	public boolean isLimited() {
+		return rate > 0;
+	}
+
+	/**
+	 * Change the rate. Transfers already waiting finish their current wait
+	 * before the new rate applies to them.
+	 *
+	 * @param rate bytes per second, or zero for no limit
+	 */
+	public synchronized void setRate(long rate) {
+		refill(System.nanoTime());
+		this.rate = Math.max(0, rate);
+		this.burst = Math.max(MIN_BURST, this.rate * BURST_SECONDS);
+		tokens = Math.min(tokens, burst);
+	}
+
+	/**
+	 * Take tokens for a number of bytes, waiting if the bucket is in debt.
+	 *
+	 * @param bytes bytes
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire(long bytes) throws InterruptedException {
+		if(rate <= 0 || bytes <= 0)
+			return;
+
+		long wait;
+		synchronized(this) {
+			var r = rate;
+			if(r <= 0)
+				return;
+			refill(System.nanoTime());
+			tokens -= bytes;
+			wait = tokens >= 0 ? 0 : (long)(-tokens * 1_000_000_000d / r);
+		}
+		if(wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	/**
+	 * Wrap a {@link FileTransferProgress} so the transfer reporting to it is held
+	 * to this limit. Transfers report progress from the thread doing the I/O
+	 * after each block, so waiting there throttles exactly that transfer.
+	 *
+	 * @param delegate progress to wrap
+	 * @return limited progress
+	 */
+	public FileTransferProgress limit(FileTransferProgress delegate) {
+		return new FileTransferProgress() {
+			private long current;
+
+			@Override
+			public void started(long bytesTotal, String file) {
+				synchronized(this) {
+					current = 0;
+				}
+				delegate.started(bytesTotal, file);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return delegate.isCancelled();
+			}
+
+			@Override
+			public void progressed(long bytesSoFar) {
+				long delta = 0;
+				synchronized(this) {
+					if(bytesSoFar > current) {
+						delta = bytesSoFar - current;
+						current = bytesSoFar;
+					}
+				}
+				try {
+					acquire(delta);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delegate.progressed(bytesSoFar);
+			}
+
+			@Override
+			public void completed() {
+				delegate.completed();
+			}
+		};
+	}
+
+	private void refill(long now) {
+		if(rate > 0)
+			tokens = Math.min(burst, tokens + (now - last) * rate / 1_000_000_000d);
+		last = now;
+	}
+}
@@ -0,0 +1,233 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * Expands remote glob patterns such as <code>logs/*&#47;2026-*&#47;*.gz</code>.
+ * All directories matched at one level of the pattern are listed concurrently
+ * using the channels of an {@link SftpChannels}, components without wildcards
+ * are not listed at all, and every listing is kept so expanding further
+ * patterns with the same instance does not fetch it again. Listings and
+ * attributes are also taken from, and added to, the session's
+ * {@link ListingCache}.
+ */
+public final class RemoteGlob implements Closeable {
+
+	private final SftpChannels channels;
+	private final ListingCache cache;
+	private final Map<String, List<SftpFile>> listings = new ConcurrentHashMap<>();
+
+	public RemoteGlob(SftpChannels channels, ListingCache cache) {
+		this.channels = channels;
+		this.cache = cache;
+	}
+
+	/**
+	 * Expand a pattern. If a directory named in the pattern itself, rather than
+	 * one matched by a wildcard, cannot be listed, the error is thrown. Any
+	 * matched directory that cannot be listed simply matches nothing.
+	 *
+	 * @param root directory the pattern is relative to
+	 * @param parts components of the pattern
+	 * @param recurse whether patterns with more than one component are expanded
+	 * @return matching paths, in order
+	 * @throws SftpStatusException if a named directory cannot be listed
+	 * @throws IOException on error
+	 */
+	public List<String> expand(String root, String[] parts, boolean recurse) throws SftpStatusException, IOException {
+		if(!recurse && parts.length > 1)
+			return Collections.emptyList();
+
+		List<String> paths = List.of(root);
+		var named = true;
+		for(int i = 0 ; i < parts.length && !paths.isEmpty(); i++) {
+			var part = parts[i];
+			var last = i == parts.length - 1;
+			if(part.isEmpty())
+				return Collections.emptyList();
+
+			if(!isGlob(part)) {
+				var next = paths.stream().map(p -> join(p, part)).toList();
+				paths = last ? existing(next) : next;
+				continue;
+			}
+
+			var matcher = pattern(part, 0);
+			var matches = new ConcurrentHashMap<String, List<String>>();
+			var error = new Exception[1];
+			var propagate = named;
+			channels.forEach(paths, (sftp, dir) -> {
+				var l = new ArrayList<String>();
+				for(var file : list(sftp, dir)) {
+					var filename = file.getFilename();
+					if(filename.equals(".") || filename.equals(".."))
+						continue;
+					var attrs = file.attributes();
+					if((last || attrs.isDirectory() || attrs.isLink()) && matcher.matcher(filename).matches())
+						l.add(join(dir, filename));
+				}
+				matches.put(dir, l);
+			}, (dir, e) -> {
+				if(propagate) {
+					error[0] = e;
+				}
+				/* Otherwise missing or unreadable, so nothing matches */
+			});
+			if(error[0] instanceof SftpStatusException sse)
+				throw sse;
+			else if(error[0] instanceof IOException ioe)
+				throw ioe;
+			else if(error[0] != null)
+				throw new IOException(String.format("Cannot list %s. %s", paths.get(0), error[0].getMessage()), error[0]);
+			named = false;
+
+			var next = new ArrayList<String>();
+			for(var dir : paths) {
+				var l = matches.get(dir);
+				if(l != null) {
+					Collections.sort(l);
+					next.addAll(l);
+				}
+			}
+			paths = next;
+		}
+		return paths;
+	}
+
+	/**
+	 * Compile a glob into a regular expression that matches remote paths, which
+	 * are always separated by <code>/</code> whatever the local platform, and
+	 * which may contain names that are not valid local paths. The syntax is
+	 * that of {@link java.nio.file.FileSystem#getPathMatcher(String)}, i.e.
+	 * <code>*</code> and <code>?</code> do not cross <code>/</code>,
+	 * <code>**</code> does, and <code>[...]</code>, <code>{a,b}</code> and
+	 * <code>\</code> escapes are supported.
+	 *
+	 * @param glob glob
+	 * @param flags flags of {@link Pattern#compile(String, int)}
+	 * @return pattern
+	 * @throws IllegalArgumentException if the glob is invalid
+	 */
+	public static Pattern pattern(String glob, int flags) {
+		var regex = new StringBuilder();
+		var group = false;
+		for(int i = 0 ; i < glob.length(); i++) {
+			var c = glob.charAt(i);
+			switch(c) {
+			case '\\':
+				if(++i == glob.length())
+					throw new IllegalArgumentException(String.format("Pattern '%s' ends with an escape.", glob));
+				quote(regex, glob.charAt(i));
+				break;
+			case '*':
+				if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				}
+				else
+					regex.append("[^/]*");
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				var end = glob.indexOf(']', i + 1);
+				if(end == -1)
+					throw new IllegalArgumentException(String.format("Pattern '%s' is missing a ']'.", glob));
+				var set = glob.substring(i + 1, end);
+				var negate = set.startsWith("!");
+				if(negate)
+					set = set.substring(1);
+				regex.append(negate ? "[^/" : "[[");
+				for(var sc : set.toCharArray()) {
+					if(sc == '\\' || sc == '[' || sc == ']' || sc == '^' || sc == '&')
+						regex.append('\\');
+					regex.append(sc);
+				}
+				regex.append(negate ? "]" : "]&&[^/]]");
+				i = end;
+				break;
+			case '{':
+				if(group)
+					throw new IllegalArgumentException(String.format("Pattern '%s' has nested groups.", glob));
+				regex.append("(?:");
+				group = true;
+				break;
+			case '}':
+				if(group) {
+					regex.append(')');
+					group = false;
+				}
+				else
+					quote(regex, c);
+				break;
+			case ',':
+				if(group)
+					regex.append('|');
+				else
+					quote(regex, c);
+				break;
+			default:
+				quote(regex, c);
+				break;
+			}
+		}
+		if(group)
+			throw new IllegalArgumentException(String.format("Pattern '%s' is missing a '}'.", glob));
+		return Pattern.compile(regex.toString(), flags);
+	}
+
+	@Override
+	public void close() {
+		channels.close();
+	}
+
+	private List<String> existing(List<String> paths) throws IOException {
+		var found = ConcurrentHashMap.<String>newKeySet();
+		channels.forEach(paths, (sftp, path) -> {
+			cache.getFile(sftp, path);
+			found.add(path);
+		}, (path, e) -> {
+			/* Does not exist */
+		});
+		return paths.stream().filter(found::contains).toList();
+	}
+
+	private List<SftpFile> list(SftpClient sftp, String dir) throws Exception {
+		var l = listings.get(dir);
+		if(l == null) {
+			l = cache.list(sftp, dir);
+			listings.putIfAbsent(dir, l);
+		}
+		return l;
+	}
+
+	private static boolean isGlob(String part) {
+		for(var c : part.toCharArray()) {
+			if(c == '*' || c == '?' || c == '[' || c == '{' || c == '\\')
+				return true;
+		}
+		return false;
+	}
+
+	private static void quote(StringBuilder regex, char c) {
+		if("\\.[]{}()<>*+-=!?^$|".indexOf(c) != -1)
+			regex.append('\\');
+		regex.append(c);
+	}
+
+	private static String join(String folder, String name) {
+		return folder.endsWith("/") ? folder + name : folder + "/" + name;
+	}
+}
@@ -0,0 +1,249 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+
+/**
+ * Walks a remote directory tree, listing sibling directories concurrently
+ * using the channels of an {@link SftpChannels}. Visitor methods are called
+ * as soon as entries are listed, from any of the walking threads, so must be
+ * thread safe. Symbolic links are never followed.
+ */
+public final class RemoteWalker {
+
+	public interface Visitor {
+
+		/**
+		 * Called when a directory is found, before it is listed.
+		 *
+		 * @param path path of directory
+		 * @param dir directory
+		 * @param depth depth, the root being zero
+		 * @return whether to descend into the directory
+		 * @throws Exception on error
+		 */
+		default boolean preVisitDirectory(String path, SftpFile dir, int depth) throws Exception {
+			return true;
+		}
+
+		/**
+		 * Called when a directory is found, before it is listed, with the
+		 * channel it was found on, which may be used to change the directory
+		 * before it is listed. By default calls
+		 * {@link #preVisitDirectory(String, SftpFile, int)}.
+		 *
+		 * @param sftp channel the directory was found on
+		 * @param path path of directory
+		 * @param dir directory
+		 * @param depth depth, the root being zero
+		 * @return whether to descend into the directory
+		 * @throws Exception on error
+		 */
+		default boolean preVisitDirectory(SftpClient sftp, String path, SftpFile dir, int depth) throws Exception {
+			return preVisitDirectory(path, dir, depth);
+		}
+
+		/**
+		 * Called for every entry that is not a directory.
+		 *
+		 * @param path path of file
+		 * @param file file
+		 * @param depth depth, the root being zero
+		 * @throws Exception on error
+		 */
+		default void visitFile(String path, SftpFile file, int depth) throws Exception {
+		}
+
+		/**
+		 * Called once a directory and everything below it has been visited.
+		 *
+		 * @param path path of directory
+		 * @param depth depth, the root being zero
+		 * @throws Exception on error
+		 */
+		default void postVisitDirectory(String path, int depth) throws Exception {
+		}
+
+		/**
+		 * Called if a directory could not be listed. By default the exception
+		 * is rethrown, which stops the walk.
+		 *
+		 * @param path path of directory
+		 * @param exception exception
+		 * @throws Exception to stop the walk
+		 */
+		default void failed(String path, Exception exception) throws Exception {
+			throw exception;
+		}
+	}
+
+	private final static class Node {
+		private final String path;
+		private final int depth;
+		private final Node parent;
+		private final AtomicInteger pending = new AtomicInteger(1);
+
+		private Node(String path, int depth, Node parent) {
+			this.path = path;
+			this.depth = depth;
+			this.parent = parent;
+		}
+	}
+
+	private final SftpChannels channels;
+	private final int maxDepth;
+
+	public RemoteWalker(SftpChannels channels) {
+		this(channels, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param channels channels to list directories with
+	 * @param maxDepth directories at this depth are visited but not listed
+	 */
+	public RemoteWalker(SftpChannels channels, int maxDepth) {
+		this.channels = channels;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Walk the tree at <code>root</code>, returning when the whole tree has been
+	 * visited.
+	 *
+	 * @param root root path
+	 * @param visitor visitor
+	 * @throws IOException on error or if the visitor throws an exception
+	 */
+	public void walk(String root, Visitor visitor) throws IOException {
+		SftpFile rootFile;
+		boolean descend;
+		var sftp = channels.acquire();
+		try {
+			try {
+				rootFile = sftp.getSubsystemChannel().getFile(root);
+			} catch (Exception e) {
+				throw new IOException(String.format("Failed to stat %s. %s", root, e.getMessage()), e);
+			}
+			descend = rootFile.attributes().isDirectory() && visitor.preVisitDirectory(sftp, root, rootFile, 0);
+		}
+		catch(IOException ioe) {
+			throw ioe;
+		}
+		catch(Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		finally {
+			channels.release(sftp);
+		}
+
+		try {
+			if(!rootFile.attributes().isDirectory()) {
+				visitor.visitFile(root, rootFile, 0);
+				return;
+			}
+			if(!descend)
+				return;
+			if(maxDepth < 1) {
+				visitor.postVisitDirectory(root, 0);
+				return;
+			}
+		}
+		catch(IOException ioe) {
+			throw ioe;
+		}
+		catch(Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		var executor = Executors.newFixedThreadPool(channels.size());
+		var done = new CountDownLatch(1);
+		var error = new AtomicReference<Exception>();
+		try {
+			executor.execute(() -> list(executor, new Node(root, 0, null), visitor, error, done));
+			done.await();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted.");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		var e = error.get();
+		if(e instanceof IOException)
+			throw (IOException)e;
+		else if(e != null)
+			throw new IOException(e.getMessage(), e);
+	}
+
+	private void list(ExecutorService executor, Node node, Visitor visitor, AtomicReference<Exception> error, CountDownLatch done) {
+		if(error.get() == null) {
+			try {
+				var sftp = channels.acquire();
+				try {
+					for(var it = sftp.lsIterator(node.path); it.hasNext(); ) {
+						var file = it.next();
+						var name = file.getFilename();
+						if(name.equals(".") || name.equals(".."))
+							continue;
+
+						var childPath = node.path.endsWith("/") ? node.path + name : node.path + "/" + name;
+						var childDepth = node.depth + 1;
+						if(file.attributes().isDirectory() && !file.attributes().isLink()) {
+							if(visitor.preVisitDirectory(sftp, childPath, file, childDepth)) {
+								if(childDepth < maxDepth) {
+									var child = new Node(childPath, childDepth, node);
+									node.pending.incrementAndGet();
+									executor.execute(() -> list(executor, child, visitor, error, done));
+								}
+								else {
+									visitor.postVisitDirectory(childPath, childDepth);
+								}
+							}
+						}
+						else {
+							visitor.visitFile(childPath, file, childDepth);
+						}
+					}
+				}
+				finally {
+					channels.release(sftp);
+				}
+			}
+			catch(Exception e) {
+				try {
+					visitor.failed(node.path, e);
+				}
+				catch(Exception e2) {
+					error.compareAndSet(null, e2);
+				}
+			}
+		}
+		complete(node, visitor, error, done);
+	}
+
+	private void complete(Node node, Visitor visitor, AtomicReference<Exception> error, CountDownLatch done) {
+		while(node != null && node.pending.decrementAndGet() == 0) {
+			if(error.get() == null) {
+				try {
+					visitor.postVisitDirectory(node.path, node.depth);
+				}
+				catch(Exception e) {
+					error.compareAndSet(null, e);
+				}
+			}
+			if(node.parent == null)
+				done.countDown();
+			node = node.parent;
+		}
+	}
+}
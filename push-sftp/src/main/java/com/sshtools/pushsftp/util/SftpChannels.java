@@ -0,0 +1,205 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+
+/**
+ * A fixed number of SFTP channels multiplexed over a single connection, that
+ * may be used to run many SFTP operations concurrently. Channels are opened
+ * lazily as they are needed, and an already open channel may be supplied to
+ * be used first, so small jobs need not open any new channels at all.
+ */
+public final class SftpChannels implements Closeable {
+
+	@FunctionalInterface
+	public interface SftpOp<T> {
+		void op(SftpClient sftp, T item) throws Exception;
+	}
+
+	private final SshClient ssh;
+	private final int size;
+	private final SftpClient primary;
+	private final LinkedBlockingQueue<SftpClient> idle = new LinkedBlockingQueue<>();
+	private final List<SftpClient> all = new ArrayList<>();
+
+	private boolean closed;
+
+	public SftpChannels(SshClient ssh, int size) {
+		this(ssh, size, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param ssh connection to open channels on
+	 * @param size maximum number of channels, including <code>primary</code>
+	 * @param primary an open channel to use before opening others, or <code>null</code>. It is not closed by {@link #close()}.
+	 */
+	public SftpChannels(SshClient ssh, int size, SftpClient primary) {
+		this.ssh = ssh;
+		this.size = Math.max(1, size);
+		this.primary = primary;
+		if(primary != null) {
+			all.add(primary);
+			idle.add(primary);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Acquire a channel for exclusive use, opening a new one if fewer than
+	 * {@link #size()} are open, or waiting for one to be released otherwise.
+	 *
+	 * @return channel
+	 * @throws IOException on error
+	 */
+	public SftpClient acquire() throws IOException {
+		var sftp = idle.poll();
+		if(sftp != null)
+			return sftp;
+
+		synchronized(all) {
+			if(closed)
+				throw new IOException("Channels are closed.");
+			if(all.size() < size) {
+				try {
+					sftp = SftpClientBuilder.create().withClient(ssh).build();
+				} catch (Exception e) {
+					throw new IOException("Failed to open SFTP channel.", e);
+				}
+				all.add(sftp);
+				return sftp;
+			}
+		}
+
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted waiting for SFTP channel.");
+		}
+	}
+
+	public void release(SftpClient sftp) {
+		idle.add(sftp);
+	}
+
+	/**
+	 * Perform an operation on every item, using all channels concurrently. Failures
+	 * of individual items do not stop the others, and once all items have been
+	 * processed, an exception is thrown if any failed.
+	 *
+	 * @param <T> type of item
+	 * @param items items
+	 * @param op operation
+	 * @throws IOException if any item failed
+	 */
+	public <T> void forEach(Collection<T> items, SftpOp<T> op) throws IOException {
+		var failed = new AtomicLong();
+		var firstError = new Exception[1];
+		forEach(items, op, (item, e) -> {
+			failed.incrementAndGet();
+			synchronized(firstError) {
+				if(firstError[0] == null)
+					firstError[0] = e;
+			}
+		});
+		if(failed.get() > 0) {
+			throw new IOException(String.format("%d of %d operations failed. %s", failed.get(), items.size(),
+					firstError[0].getMessage()), firstError[0]);
+		}
+	}
+
+	/**
+	 * Perform an operation on every item, using all channels concurrently. Failures
+	 * are passed to <code>onFailure</code>, which may be called from any thread.
+	 *
+	 * @param <T> type of item
+	 * @param items items
+	 * @param op operation
+	 * @param onFailure called for each item that fails
+	 * @throws IOException if interrupted or a channel cannot be opened
+	 */
+	public <T> void forEach(Collection<T> items, SftpOp<T> op, BiConsumer<T, Exception> onFailure) throws IOException {
+		if(items.isEmpty())
+			return;
+
+		var queue = new ConcurrentLinkedQueue<T>(items);
+		var workers = Math.min(size, items.size());
+		var executor = Executors.newFixedThreadPool(workers);
+		try {
+			var futures = new ArrayList<Future<Void>>();
+			for(int i = 0 ; i < workers; i++) {
+				futures.add(executor.submit(() -> {
+					var sftp = acquire();
+					try {
+						T item;
+						while((item = queue.poll()) != null) {
+							try {
+								op.op(sftp, item);
+							}
+							catch(InterruptedIOException iioe) {
+								throw iioe;
+							}
+							catch(Exception e) {
+								onFailure.accept(item, e);
+							}
+						}
+					}
+					finally {
+						release(sftp);
+					}
+					return null;
+				}));
+			}
+			for(var future : futures) {
+				future.get();
+			}
+		}
+		catch(InterruptedException ie) {
+			throw new InterruptedIOException("Interrupted.");
+		}
+		catch(ExecutionException ee) {
+			if(ee.getCause() instanceof IOException)
+				throw (IOException)ee.getCause();
+			throw new IOException(ee.getCause().getMessage(), ee.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized(all) {
+			closed = true;
+			for(var sftp : all) {
+				if(sftp == primary)
+					continue;
+				try {
+					sftp.close();
+				} catch (Exception e) {
+				}
+			}
+			all.clear();
+			idle.clear();
+		}
+	}
+}
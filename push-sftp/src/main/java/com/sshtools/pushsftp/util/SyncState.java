@@ -0,0 +1,131 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of both sides of a synchronised pair of directories as it was at
+ * the end of the last sync, keyed by path relative to the synchronised
+ * directories. Comparing the current state of each side with this baseline
+ * tells which side (or both) has changed a file since.
+ */
+public final class SyncState {
+
+	public final static Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".push-sftp", "sync");
+
+	public final static class Entry {
+		private final long localSize;
+		private final long localModified;
+		private final long remoteSize;
+		private final long remoteModified;
+
+		public Entry(long localSize, long localModified, long remoteSize, long remoteModified) {
+			this.localSize = localSize;
+			this.localModified = localModified;
+			this.remoteSize = remoteSize;
+			this.remoteModified = remoteModified;
+		}
+
+		public long localSize() {
+			return localSize;
+		}
+
+		public long localModified() {
+			return localModified;
+		}
+
+		public long remoteSize() {
+			return remoteSize;
+		}
+
+		public long remoteModified() {
+			return remoteModified;
+		}
+	}
+
+	private final Path file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private SyncState(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load the state for a pair of directories, or an empty state if they have
+	 * never been synchronised.
+	 *
+	 * @param directory directory where states are kept
+	 * @param target target, e.g. <code>user@host:22</code>
+	 * @param local local directory
+	 * @param remote remote directory
+	 * @return state
+	 * @throws IOException on error
+	 */
+	public static SyncState load(Path directory, String target, Path local, String remote) throws IOException {
+		var state = new SyncState(directory.resolve(key(target + "\0" + local.toAbsolutePath().normalize() + "\0" + remote) + ".properties"));
+		if(Files.exists(state.file)) {
+			var props = new Properties();
+			try(var in = Files.newBufferedReader(state.file, StandardCharsets.UTF_8)) {
+				props.load(in);
+			}
+			for(var name : props.stringPropertyNames()) {
+				var parts = props.getProperty(name).split(",");
+				try {
+					state.entries.put(name, new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+							Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+				}
+				catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					/* Corrupt entry, treated as never synchronised */
+				}
+			}
+		}
+		return state;
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public Optional<Entry> get(String path) {
+		return Optional.ofNullable(entries.get(path));
+	}
+
+	public void put(String path, Entry entry) {
+		entries.put(path, entry);
+	}
+
+	public void remove(String path) {
+		entries.remove(path);
+	}
+
+	public void save() throws IOException {
+		var props = new Properties();
+		for(var en : entries.entrySet()) {
+			var e = en.getValue();
+			props.setProperty(en.getKey(), e.localSize + "," + e.localModified + "," + e.remoteSize + "," + e.remoteModified);
+		}
+		Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			props.store(out, "push-sftp sync state");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String key(String text) {
+		try {
+			return Digests.hex(MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * Writes statistics about transfers as JSON Lines, one record per file, per
+ * chunk and per command, as the transfer runs. Every record has a
+ * <code>type</code> (<code>file</code>, <code>chunk</code> or
+ * <code>summary</code>), a <code>time</code> and the <code>command</code> that
+ * made it. Byte counts are in bytes, durations in milliseconds and throughput
+ * in bytes per second. The same events are also counted in the session's
+ * {@link Metrics}, whether or not any records are written.
+ */
+public final class TransferStats implements Closeable {
+
+	/**
+	 * A record being built.
+	 */
+	public final class Record {
+		private final Map<String, Object> values = new LinkedHashMap<>();
+
+		private Record(String type) {
+			values.put("type", type);
+			values.put("time", Instant.now().toString());
+			values.put("command", command);
+		}
+
+		public Record with(String key, Object value) {
+			values.put(key, value);
+			return this;
+		}
+
+		/**
+		 * Add a duration in milliseconds, and the throughput of a number of
+		 * bytes over that duration.
+		 *
+		 * @param bytes bytes
+		 * @param millis duration
+		 * @return this for chaining
+		 */
+		public Record withTiming(long bytes, long millis) {
+			values.put("durationMs", millis);
+			values.put("throughput", millis == 0 ? 0 : bytes * 1000 / millis);
+			return this;
+		}
+
+		public void write() {
+			TransferStats.this.write(values);
+		}
+	}
+
+	/**
+	 * A file being recorded.
+	 */
+	public final static class Tracked {
+		private final String file;
+		private final long size;
+		private final long started = System.currentTimeMillis();
+		private final long startedNanos = System.nanoTime();
+		private volatile long bytes;
+		private long counted;
+
+		private Tracked(String file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	private final Optional<Writer> writer;
+	private final boolean closeWriter;
+	private final String command;
+	private final String direction;
+	private final Metrics metrics;
+	private final long started = System.currentTimeMillis();
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong chunks = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final Set<Tracked> open = ConcurrentHashMap.newKeySet();
+
+	private TransferStats(Optional<Writer> writer, boolean closeWriter, String command, boolean upload, Metrics metrics) {
+		this.writer = writer;
+		this.metrics = metrics;
+		this.closeWriter = closeWriter;
+		this.command = command;
+		this.direction = upload ? "write" : "read";
+	}
+
+	/**
+	 * Get statistics that write nothing and count into a registry of their own.
+	 *
+	 * @return statistics
+	 */
+	public static TransferStats none() {
+		return new TransferStats(Optional.empty(), false, "", true, new Metrics());
+	}
+
+	/**
+	 * Open statistics for a command.
+	 *
+	 * @param destination file to append to, <code>-</code> for standard error, or empty to write nothing
+	 * @param command name of command
+	 * @param upload whether the command uploads, rather than downloads
+	 * @param metrics metrics to count into
+	 * @return statistics
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static TransferStats open(Optional<String> destination, String command, boolean upload, Metrics metrics) throws IOException {
+		if(destination.isEmpty())
+			return new TransferStats(Optional.empty(), false, command, upload, metrics);
+		if(destination.get().equals("-"))
+			return new TransferStats(Optional.of(new OutputStreamWriter(System.err, StandardCharsets.UTF_8)), false, command, upload, metrics);
+		return new TransferStats(Optional.of(Files.newBufferedWriter(Path.of(destination.get()), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)), true, command, upload, metrics);
+	}
+
+	public boolean isEnabled() {
+		return writer.isPresent();
+	}
+
+	public Record record(String type) {
+		return new Record(type);
+	}
+
+	/**
+	 * Record a chunk, i.e. a range of a file or one of many files, sent over
+	 * one of several connections.
+	 *
+	 * @param file file
+	 * @param connection index of connection, 0 being the session's own
+	 * @param offset offset of range
+	 * @param length length of range
+	 * @param started when the chunk started
+	 * @param error error if the chunk failed
+	 */
+	public void chunk(String file, int connection, long offset, long length, long started, Optional<Exception> error) {
+		var millis = System.currentTimeMillis() - started;
+		metrics.histogram(Metrics.CHUNK).record(millis * 1000);
+		if(error.isEmpty())
+			metrics.connection(connection, length, millis);
+		if(writer.isEmpty())
+			return;
+		chunks.incrementAndGet();
+		if(error.isPresent())
+			failures.incrementAndGet();
+		var record = record("chunk").
+				with("file", file).
+				with("connection", connection).
+				with("offset", offset).
+				with("bytes", length).
+				withTiming(length, millis).
+				with("status", error.isPresent() ? "failed" : "done");
+		error.ifPresent(e -> record.with("error", String.valueOf(e.getMessage())));
+		record.write();
+	}
+
+	/**
+	 * Wrap a {@link FileTransferProgress} to write a record for each file it
+	 * reports on, when that file completes. Files still running when the
+	 * statistics are closed are recorded as incomplete.
+	 *
+	 * @param delegate progress to wrap
+	 * @return progress
+	 */
+	public FileTransferProgress track(FileTransferProgress delegate) {
+		return new FileTransferProgress() {
+			private volatile Tracked current;
+
+			@Override
+			public void started(long bytesTotal, String file) {
+				var previous = current;
+				if(previous != null && open.remove(previous))
+					file(previous, "incomplete");
+				var tracked = new Tracked(file, bytesTotal);
+				metrics.gauge(Metrics.BYTES_IN_FLIGHT).add(bytesTotal);
+				open.add(tracked);
+				current = tracked;
+				delegate.started(bytesTotal, file);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return delegate.isCancelled();
+			}
+
+			@Override
+			public void progressed(long bytesSoFar) {
+				var tracked = current;
+				if(tracked != null) {
+					tracked.bytes = bytesSoFar;
+					count(tracked);
+					if(bytesSoFar >= tracked.size && open.remove(tracked))
+						file(tracked, "done");
+				}
+				delegate.progressed(bytesSoFar);
+			}
+
+			@Override
+			public void completed() {
+				var tracked = current;
+				if(tracked != null && open.remove(tracked)) {
+					tracked.bytes = tracked.size;
+					count(tracked);
+					file(tracked, "done");
+				}
+				delegate.completed();
+			}
+		};
+	}
+
+	/**
+	 * Start recording one of several files that a task transfers at once, and
+	 * so cannot report one at a time through a {@link #track(FileTransferProgress)}
+	 * progress. Such a task reports its combined progress to a progress that
+	 * is not tracked, and each file to these statistics.
+	 *
+	 * @param file file
+	 * @param size size of file
+	 * @return file to report progress of
+	 */
+	public Tracked file(String file, long size) {
+		var tracked = new Tracked(file, size);
+		metrics.gauge(Metrics.BYTES_IN_FLIGHT).add(size);
+		open.add(tracked);
+		return tracked;
+	}
+
+	/**
+	 * Set the number of bytes of a file started with {@link #file(String, long)}
+	 * transferred so far.
+	 *
+	 * @param tracked file
+	 * @param bytesSoFar bytes
+	 */
+	public void progressed(Tracked tracked, long bytesSoFar) {
+		tracked.bytes = bytesSoFar;
+		count(tracked);
+	}
+
+	/**
+	 * Write the record of a file started with {@link #file(String, long)}. Only
+	 * the first call for a file has any effect.
+	 *
+	 * @param tracked file
+	 * @param error error if the file failed
+	 */
+	public void finished(Tracked tracked, Optional<Exception> error) {
+		if(open.remove(tracked)) {
+			if(error.isEmpty()) {
+				tracked.bytes = tracked.size;
+				count(tracked);
+			}
+			file(tracked, error.isPresent() ? "failed" : "done", error);
+		}
+	}
+
+	/**
+	 * Write the summary record, and close the file if there is one.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(var tracked : open) {
+			if(open.remove(tracked))
+				file(tracked, "incomplete");
+		}
+		if(writer.isEmpty())
+			return;
+		var record = record("summary").
+			with("files", files.get()).
+			with("chunks", chunks.get()).
+			with("failures", failures.get()).
+			with("bytes", bytes.get()).
+			withTiming(bytes.get(), System.currentTimeMillis() - started);
+
+		/*
+		 * The last round trip time and block size any SFTP client in this
+		 * process measured, see 'info'. These are not per file, nor even
+		 * necessarily from this command's transfers.
+		 */
+		var roundTrip = System.getProperty("maverick." + direction + ".blockRoundtrip");
+		if(roundTrip != null)
+			record.with("sessionRoundTripMs", number(roundTrip));
+		var blockSize = System.getProperty("maverick." + direction + ".optimizedBlock");
+		if(blockSize != null)
+			record.with("sessionBlockSize", number(blockSize));
+		record.write();
+		if(closeWriter)
+			writer.get().close();
+	}
+
+	private void count(Tracked tracked) {
+		long delta;
+		synchronized(tracked) {
+			delta = tracked.bytes - tracked.counted;
+			if(delta <= 0)
+				return;
+			tracked.counted = tracked.bytes;
+		}
+		metrics.counter(direction.equals("write") ? Metrics.BYTES_WRITTEN : Metrics.BYTES_READ).add(delta);
+		metrics.gauge(Metrics.BYTES_IN_FLIGHT).add(-delta);
+	}
+
+	private void file(Tracked tracked, String status) {
+		file(tracked, status, Optional.empty());
+	}
+
+	private void file(Tracked tracked, String status, Optional<Exception> error) {
+		synchronized(tracked) {
+			metrics.gauge(Metrics.BYTES_IN_FLIGHT).add(-(tracked.size - tracked.counted));
+			tracked.counted = tracked.size;
+		}
+		metrics.histogram(Metrics.FILE).recordSince(tracked.startedNanos);
+		if(writer.isEmpty())
+			return;
+		files.incrementAndGet();
+		bytes.addAndGet(tracked.bytes);
+		if(!status.equals("done"))
+			failures.incrementAndGet();
+		var record = record("file").
+			with("file", tracked.file).
+			with("size", tracked.size).
+			with("bytes", tracked.bytes).
+			withTiming(tracked.bytes, System.currentTimeMillis() - tracked.started).
+			with("status", status);
+		error.ifPresent(e -> record.with("error", String.valueOf(e.getMessage())));
+		record.write();
+	}
+
+	private void write(Map<String, Object> values) {
+		if(writer.isEmpty())
+			return;
+		var json = Json.object(new StringBuilder(), values).append('\n');
+		synchronized(this) {
+			try {
+				writer.get().write(json.toString());
+				writer.get().flush();
+			}
+			catch(IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+	}
+
+	private static Object number(String str) {
+		try {
+			return Long.parseLong(str);
+		}
+		catch(NumberFormatException nfe) {
+			try {
+				return Double.parseDouble(str);
+			}
+			catch(NumberFormatException nfe2) {
+				return str;
+			}
+		}
+	}
+}
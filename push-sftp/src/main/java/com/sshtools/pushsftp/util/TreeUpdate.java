@@ -0,0 +1,252 @@
+package com.sshtools.pushsftp.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.pushsftp.util.SftpChannels.SftpOp;
+
+/**
+ * Applies an operation, such as changing permissions or ownership, to every
+ * entry of a remote directory tree. The tree is listed by a
+ * {@link RemoteWalker} on one set of channels while the operation is applied
+ * to what has been found so far on another, so requests are in flight on
+ * every channel of both at once. By default directories are only changed
+ * once everything below them has been, deepest first, so removing access to a
+ * directory cannot stop its children being reached, and so that directories
+ * are empty by the time they are removed. Changes that grant access may
+ * instead change each directory before it is listed, so that directories
+ * that could not be listed before can be. Symbolic links below the root are
+ * skipped unless asked for, as the server would follow them. Failures do not
+ * stop the others, and are collected to be reported together.
+ */
+public final class TreeUpdate {
+
+	/**
+	 * The most failures that are kept to be reported, the rest are only
+	 * counted.
+	 */
+	private final static int MAX_ERRORS = 20;
+
+	/**
+	 * Queued after the last path, once for each worker, and compared by
+	 * identity.
+	 */
+	private final static String END = new String();
+
+	/**
+	 * When directories are changed, relative to what is below them.
+	 */
+	public enum Order {
+		/**
+		 * After everything below them, deepest first.
+		 */
+		DIRECTORIES_LAST,
+		/**
+		 * Before they are listed, on the channel that found them.
+		 */
+		DIRECTORIES_FIRST
+	}
+
+	private final static class Dir {
+		private final String path;
+		private final int depth;
+
+		private Dir(String path, int depth) {
+			this.path = path;
+			this.depth = depth;
+		}
+	}
+
+	private final SftpChannels listing;
+	private final SftpChannels updating;
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Constructor.
+	 *
+	 * @param listing channels to list directories with
+	 * @param updating channels to apply the operation with
+	 */
+	public TreeUpdate(SftpChannels listing, SftpChannels updating) {
+		this.listing = listing;
+		this.updating = updating;
+	}
+
+	/**
+	 * Apply an operation to a path and, if it is a directory, everything below
+	 * it.
+	 *
+	 * @param root root path
+	 * @param op operation
+	 * @throws IOException if the tree cannot be walked
+	 */
+	public void apply(String root, SftpOp<String> op) throws IOException {
+		apply(root, op, Order.DIRECTORIES_LAST);
+	}
+
+	/**
+	 * Apply an operation to a path and, if it is a directory, everything below
+	 * it, changing directories in the given order.
+	 *
+	 * @param root root path
+	 * @param op operation
+	 * @param order when to change directories
+	 * @throws IOException if the tree cannot be walked
+	 */
+	public void apply(String root, SftpOp<String> op, Order order) throws IOException {
+		apply(root, op, op, false, order);
+	}
+
+	/**
+	 * Apply one operation to every file below a path, and another to every
+	 * directory, including the path itself, once the files have been done.
+	 *
+	 * @param root root path
+	 * @param fileOp operation for files
+	 * @param dirOp operation for directories
+	 * @param links whether symbolic links below the root are given to
+	 *        <code>fileOp</code> rather than skipped
+	 * @throws IOException if the tree cannot be walked
+	 */
+	public void apply(String root, SftpOp<String> fileOp, SftpOp<String> dirOp, boolean links) throws IOException {
+		apply(root, fileOp, dirOp, links, Order.DIRECTORIES_LAST);
+	}
+
+	private void apply(String root, SftpOp<String> fileOp, SftpOp<String> dirOp, boolean links, Order order) throws IOException {
+		var queue = new LinkedBlockingQueue<String>();
+		var dirs = Collections.synchronizedList(new ArrayList<Dir>());
+		var workers = updating.size();
+		var executor = Executors.newFixedThreadPool(workers);
+		try {
+			var futures = new ArrayList<Future<Void>>();
+			for(int i = 0 ; i < workers; i++) {
+				futures.add(executor.submit(() -> {
+					var sftp = updating.acquire();
+					try {
+						String path;
+						while((path = queue.take()) != END) {
+							apply(sftp, path, fileOp);
+						}
+					}
+					finally {
+						updating.release(sftp);
+					}
+					return null;
+				}));
+			}
+
+			try {
+				new RemoteWalker(listing).walk(root, new RemoteWalker.Visitor() {
+					@Override
+					public boolean preVisitDirectory(SftpClient sftp, String path, SftpFile dir, int depth) throws Exception {
+						if(order == Order.DIRECTORIES_FIRST)
+							apply(sftp, path, dirOp);
+						else
+							dirs.add(new Dir(path, depth));
+						return true;
+					}
+
+					@Override
+					public void visitFile(String path, SftpFile file, int depth) throws Exception {
+						if(depth == 0 || links || !file.attributes().isLink())
+							queue.add(path);
+					}
+
+					@Override
+					public void failed(String path, Exception exception) throws Exception {
+						failure(path, exception);
+					}
+				});
+			}
+			finally {
+				for(int i = 0 ; i < workers; i++)
+					queue.add(END);
+			}
+			await(futures);
+
+			/* Then directories, deepest first, a level at a time */
+			dirs.sort(Comparator.comparingInt((Dir d) -> d.depth).reversed());
+			var level = new ArrayList<String>();
+			for(int i = 0 ; i < dirs.size(); i++) {
+				level.add(dirs.get(i).path);
+				if(i == dirs.size() - 1 || dirs.get(i + 1).depth != dirs.get(i).depth) {
+					updating.forEach(new ArrayList<>(level), (sftp, path) -> apply(sftp, path, dirOp), (path, e) -> {});
+					level.clear();
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get how many entries the operation succeeded on.
+	 *
+	 * @return count
+	 */
+	public long applied() {
+		return applied.get();
+	}
+
+	/**
+	 * Get how many entries could not be listed or changed.
+	 *
+	 * @return count
+	 */
+	public long failed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get messages for the first failures.
+	 *
+	 * @return messages
+	 */
+	public List<String> errors() {
+		return Collections.unmodifiableList(new ArrayList<>(errors));
+	}
+
+	private void apply(SftpClient sftp, String path, SftpOp<String> op) {
+		try {
+			op.op(sftp, path);
+			applied.incrementAndGet();
+		}
+		catch(Exception e) {
+			failure(path, e);
+		}
+	}
+
+	private void failure(String path, Exception e) {
+		if(failed.incrementAndGet() <= MAX_ERRORS)
+			errors.add(String.format("%s: %s", path, e.getMessage()));
+	}
+
+	private static void await(List<Future<Void>> futures) throws IOException {
+		try {
+			for(var future : futures)
+				future.get();
+		}
+		catch(InterruptedException ie) {
+			throw new InterruptedIOException("Interrupted.");
+		}
+		catch(ExecutionException ee) {
+			if(ee.getCause() instanceof IOException)
+				throw (IOException)ee.getCause();
+			throw new IOException(ee.getCause().getMessage(), ee.getCause());
+		}
+	}
+}